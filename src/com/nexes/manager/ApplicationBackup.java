@@ -21,11 +21,7 @@ package com.nexes.manager;
 import java.util.List;
 import java.util.ArrayList;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 
 import android.os.Bundle;
@@ -146,15 +142,17 @@ public class ApplicationBackup extends ListActivity implements OnClickListener {
 	 * sent to our handler object.
 	 */
 	private class BackgroundWork implements Runnable {
-		private static final int BUFFER = 256;
-		
 		private ArrayList<ApplicationInfo> mDataSource;
 		private File mDir = new File(BACKUP_LOC);
-		private byte[] mData;
+		private FileCopier mCopier;
+		private WritePolicy mPolicy;
 		
 		public BackgroundWork(ArrayList<ApplicationInfo> data)  {
 			mDataSource = data;
-			mData =  new byte[BUFFER];
+			/* a backup is only worth something once it is on the card */
+			mPolicy = new WritePolicy();
+			mPolicy.setSync(WritePolicy.SYNC_BATCH);
+			mCopier = new FileCopier(mPolicy);
 						
 			/*create dir if needed*/
 			File d = new File("/sdcard/open manager/");
@@ -171,11 +169,8 @@ public class ApplicationBackup extends ListActivity implements OnClickListener {
 		}
 
 		public void run() {
-			BufferedInputStream mBuffIn;
-			BufferedOutputStream mBuffOut;
 			Message msg;
 			int len = mDataSource.size();
-			int read = 0;
 			
 			for(int i = 0; i < len; i++) {
 				ApplicationInfo info = mDataSource.get(i);
@@ -183,15 +178,7 @@ public class ApplicationBackup extends ListActivity implements OnClickListener {
 				String out_file = source_dir.substring(source_dir.lastIndexOf("/") + 1, source_dir.length());
 
 				try {
-					mBuffIn = new BufferedInputStream(new FileInputStream(source_dir));
-					mBuffOut = new BufferedOutputStream(new FileOutputStream(BACKUP_LOC + out_file));
-					
-					while((read = mBuffIn.read(mData, 0, BUFFER)) != -1)
-						mBuffOut.write(mData, 0, read);
-					
-					mBuffOut.flush();
-					mBuffIn.close();
-					mBuffOut.close();
+					mCopier.copy(new File(source_dir), new File(BACKUP_LOC + out_file));
 					
 					msg = new Message();
 					msg.what = SET_PROGRESS;
@@ -205,6 +192,7 @@ public class ApplicationBackup extends ListActivity implements OnClickListener {
 				}
 			}
 			
+			mPolicy.finishBatch();
 			mHandler.sendEmptyMessage(FINISH_PROGRESS);
 		}
 	}
@@ -0,0 +1,122 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A file or folder inside a zip archive, answering the questions the list
+ * view asks a File from a ZipIndex instead of the card. Its path is the
+ * path of the archive followed by the path inside it, 
+ * /sdcard/photos.zip/2010/beach.jpg for example.
+ * <br>
+ * <br>
+ * Archive entries can only be read, and only through openStream, handing 
+ * one to a FileInputStream or anything else that goes to the card fails 
+ * the same way it would for a file that doesn't exist.
+ * 
+ * @author Joe Berria
+ */
+public class ArchiveFile extends File {
+	private static final long serialVersionUID = 1L;
+	
+	private final transient ZipIndex mIndex;
+	private final String mEntry;
+	/* the central directory record of a file, -1 if this isn't one */
+	private final int mRecord;
+	
+	/**
+	 * @param path	the archive's path followed by entry
+	 * @param index	the index of the archive
+	 * @param entry	the path inside the archive, see ZipIndex
+	 */
+	public ArchiveFile(String path, ZipIndex index, String entry) {
+		super(path);
+		
+		mIndex = index;
+		mEntry = entry;
+		mRecord = index.findFile(entry);
+	}
+	
+	/**
+	 * @return the path inside the archive
+	 */
+	public String getEntryName() {
+		return mEntry;
+	}
+	
+	/**
+	 * @return the contents of this file, inflated as they are read
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		return mIndex.open(mEntry);
+	}
+	
+	@Override
+	public boolean exists() {
+		return isDirectory() || isFile();
+	}
+	
+	@Override
+	public boolean isDirectory() {
+		return mIndex.isDirectory(mEntry);
+	}
+	
+	@Override
+	public boolean isFile() {
+		return mRecord >= 0;
+	}
+	
+	@Override
+	public boolean isHidden() {
+		return getName().startsWith(".");
+	}
+	
+	@Override
+	public boolean canRead() {
+		return exists();
+	}
+	
+	@Override
+	public boolean canWrite() {
+		return false;
+	}
+	
+	@Override
+	public long length() {
+		CentralDirectory.Entry entry = mIndex.getEntry(mRecord);
+		
+		return entry == null ? 0 : entry.getSize();
+	}
+	
+	@Override
+	public long lastModified() {
+		CentralDirectory.Entry entry = mIndex.getEntry(mRecord);
+		
+		return entry == null ? 0 : Math.max(0, entry.getTime());
+	}
+	
+	@Override
+	public String[] list() {
+		return mIndex.list(mEntry);
+	}
+}
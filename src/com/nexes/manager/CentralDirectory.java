@@ -0,0 +1,334 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory at the end of a zip file, which lists every
+ * entry with its sizes, checksum and where its data starts. Unlike
+ * java.util.zip.ZipFile this gives the offset of each entry, so several
+ * threads can each read entries through their own channel.
+ * <br>
+ * <br>
+ * The central directory is mapped into memory rather than read, and only
+ * the position of each entry's record in it is kept, four bytes an entry.
+ * An Entry is decoded from its record when it is asked for, so an archive
+ * of hundreds of thousands of entries can be listed in a small heap.
+ * <br>
+ * <br>
+ * Zip64 archives, with more than 65535 entries or 4 Gb of data, are read
+ * through their Zip64 end record and extra fields. Names are taken to be 
+ * UTF-8, as ZipFile does on Android.
+ *
+ * @author Joe Berria
+ */
+public class CentralDirectory {
+	static final int LOCAL_HEADER = 	0x04034b50;
+	static final int CENTRAL_HEADER = 	0x02014b50;
+	static final int END_HEADER = 		0x06054b50;
+	static final int END64_HEADER = 	0x06064b50;
+	static final int END64_LOCATOR = 	0x07064b50;
+	static final int LOCAL_SIZE = 		30;
+	static final int CENTRAL_SIZE = 	46;
+	static final int END_SIZE = 		22;
+	static final int END64_SIZE = 		56;
+	static final int LOCATOR_SIZE = 	20;
+	static final int METHOD_STORED = 	0;
+	static final int METHOD_DEFLATED = 	8;
+	static final int FLAG_ENCRYPTED = 	0x0001;
+	/* the extra field holding the Zip64 sizes and offset */
+	static final int ZIP64_EXTRA = 		0x0001;
+	/* a size or offset too big for its field, found in the Zip64 extra */
+	static final long ZIP64_MARK = 		0xffffffffL;
+	private static final int MAX_COMMENT = 0xffff;
+	
+	private final ByteBuffer mDir;
+	private final int[] mRecords;
+	private final long mStart;
+	
+	/**
+	 * One entry of the central directory
+	 */
+	public static class Entry {
+		String name;
+		/* the name as it is stored, in whatever encoding that was */
+		byte[] rawName;
+		int flags;
+		int method;
+		int time;
+		long crc;
+		long compressed;
+		long size;
+		long offset;
+		
+		public String getName() {
+			return name;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+		
+		/**
+		 * @return	the entry's DOS time in milliseconds, local time as
+		 * 			ZipEntry has it, or -1 if it has none
+		 */
+		public long getTime() {
+			if(time == 0)
+				return -1;
+			
+			Calendar cal = Calendar.getInstance();
+			
+			cal.clear();
+			cal.set(1980 + ((time >> 25) & 0x7f), ((time >> 21) & 0x0f) - 1, (time >> 16) & 0x1f,
+					(time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) << 1);
+			
+			return cal.getTimeInMillis();
+		}
+	}
+	
+	/**
+	 * @param channel	an open zip file, its position is left alone
+	 * @throws IOException	if channel is not a zip file this can read
+	 */
+	public CentralDirectory(FileChannel channel) throws IOException {
+		long length = channel.size();
+		int tail = (int)Math.min(length, END_SIZE + MAX_COMMENT);
+		ByteBuffer end = read(channel, length - tail, tail);
+		int pos = tail - END_SIZE;
+		
+		/* the end record is followed only by its comment */
+		while(pos >= 0 && (end.getInt(pos) != END_HEADER || 
+						   pos + END_SIZE + (end.getShort(pos + 20) & 0xffff) != tail))
+			pos--;
+		
+		if(pos < 0)
+			throw new ZipException("Not a zip file");
+		
+		long end_pos = length - tail + pos;
+		long count = end.getShort(pos + 10) & 0xffff;
+		long size = end.getInt(pos + 12) & 0xffffffffL;
+		long start = end.getInt(pos + 16) & 0xffffffffL;
+		
+		/* the Zip64 end record is found through the locator just in front 
+		 * of the end record. Without one these are the real values */
+		if((count == 0xffff || size == ZIP64_MARK || start == ZIP64_MARK) && 
+		   end_pos >= LOCATOR_SIZE) {
+			ByteBuffer locator = read(channel, end_pos - LOCATOR_SIZE, LOCATOR_SIZE);
+			
+			if(locator.getInt(0) == END64_LOCATOR) {
+				end_pos = locator.getLong(8);
+				
+				if(end_pos < 0 || end_pos + END64_SIZE > length)
+					throw new ZipException("Zip64 end record is damaged");
+				
+				ByteBuffer end64 = read(channel, end_pos, END64_SIZE);
+				
+				if(end64.getInt(0) != END64_HEADER)
+					throw new ZipException("Zip64 end record is damaged");
+				
+				count = end64.getLong(32);
+				size = end64.getLong(40);
+				start = end64.getLong(48);
+			}
+		}
+		
+		if(count < 0 || count > Integer.MAX_VALUE || size < 0 || size > Integer.MAX_VALUE ||
+		   start < 0 || start + size > end_pos)
+			throw new ZipException("Central directory is damaged");
+		
+		mStart = start;
+		mDir = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		mDir.order(ByteOrder.LITTLE_ENDIAN);
+		mRecords = new int[(int)count];
+		pos = 0;
+		
+		for(int i = 0; i < count; i++) {
+			if(pos + CENTRAL_SIZE > size || mDir.getInt(pos) != CENTRAL_HEADER)
+				throw new ZipException("Central directory is damaged");
+			
+			mRecords[i] = pos;
+			pos += CENTRAL_SIZE + (mDir.getShort(pos + 28) & 0xffff) + 
+				   (mDir.getShort(pos + 30) & 0xffff) + (mDir.getShort(pos + 32) & 0xffff);
+			
+			if(pos > size)
+				throw new ZipException("Central directory is damaged");
+		}
+	}
+	
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return mRecords.length;
+	}
+	
+	/**
+	 * Decodes entry i of the central directory. The Entry is made anew 
+	 * on every call.
+	 * 
+	 * @param i		the entry, in the order of the central directory
+	 * @return		the entry
+	 * @throws ZipException	if its Zip64 extra field is missing
+	 */
+	public Entry getEntry(int i) throws ZipException {
+		int pos = mRecords[i];
+		int name_length = mDir.getShort(pos + 28) & 0xffff;
+		Entry entry = new Entry();
+		
+		entry.flags = mDir.getShort(pos + 8) & 0xffff;
+		entry.method = mDir.getShort(pos + 10) & 0xffff;
+		entry.time = mDir.getInt(pos + 12);
+		entry.crc = mDir.getInt(pos + 16) & 0xffffffffL;
+		entry.compressed = mDir.getInt(pos + 20) & 0xffffffffL;
+		entry.size = mDir.getInt(pos + 24) & 0xffffffffL;
+		entry.offset = mDir.getInt(pos + 42) & 0xffffffffL;
+		entry.rawName = name_bytes(i);
+		entry.name = decode(entry.rawName);
+		
+		if(entry.size == ZIP64_MARK || entry.compressed == ZIP64_MARK || 
+		   entry.offset == ZIP64_MARK)
+			read_zip64(pos + CENTRAL_SIZE + name_length, mDir.getShort(pos + 30) & 0xffff, 
+					   entry);
+		
+		return entry;
+	}
+	
+	/**
+	 * @param i	the entry, in the order of the central directory
+	 * @return	the name of entry i, without decoding the rest of it
+	 */
+	public String getName(int i) {
+		return decode(name_bytes(i));
+	}
+	
+	private byte[] name_bytes(int i) {
+		int pos = mRecords[i];
+		int length = mDir.getShort(pos + 28) & 0xffff;
+		byte[] name = new byte[length];
+		
+		for(int k = 0; k < length; k++)
+			name[k] = mDir.get(pos + CENTRAL_SIZE + k);
+		
+		return name;
+	}
+	
+	private static String decode(byte[] name) {
+		try {
+			return new String(name, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(name);
+		}
+	}
+	
+	/**
+	 * @return where the central directory starts, which is where the 
+	 * 		   data of the last entry ends
+	 */
+	public long getStart() {
+		return mStart;
+	}
+	
+	/**
+	 * Reads the local header of entry to find where its data starts, 
+	 * the local header can have a different extra field than the 
+	 * central directory.
+	 * 
+	 * @param channel	the zip file
+	 * @param entry		an entry of the zip file
+	 * @return			the offset of the first byte of entry's data
+	 * @throws IOException
+	 */
+	public static long dataStart(FileChannel channel, Entry entry) throws IOException {
+		ByteBuffer header = read(channel, entry.offset, LOCAL_SIZE);
+		
+		if(header.getInt(0) != LOCAL_HEADER)
+			throw new ZipException("Bad local header for " + entry.name);
+		
+		return entry.offset + LOCAL_SIZE + (header.getShort(26) & 0xffff) + 
+			   (header.getShort(28) & 0xffff);
+	}
+	
+	/*
+	 * Reads length bytes at pos, without moving the channel, into 
+	 * a little endian buffer
+	 */
+	static ByteBuffer read(FileChannel channel, long pos, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, pos + buffer.position());
+			
+			if(read == -1)
+				throw new ZipException("Unexpected end of zip file");
+		}
+		
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+	
+	/*
+	 * The Zip64 extra field holds, in this order, only those of the size, 
+	 * compressed size and offset that didn't fit in the record
+	 */
+	private void read_zip64(int pos, int length, Entry entry) throws ZipException {
+		int end = pos + length;
+		
+		while(pos + 4 <= end) {
+			int id = mDir.getShort(pos) & 0xffff;
+			int size = mDir.getShort(pos + 2) & 0xffff;
+			int field = pos + 4;
+			
+			pos = field + size;
+			if(id != ZIP64_EXTRA || pos > end)
+				continue;
+			
+			if(entry.size == ZIP64_MARK && field + 8 <= pos) {
+				entry.size = mDir.getLong(field);
+				field += 8;
+			}
+			if(entry.compressed == ZIP64_MARK && field + 8 <= pos) {
+				entry.compressed = mDir.getLong(field);
+				field += 8;
+			}
+			if(entry.offset == ZIP64_MARK && field + 8 <= pos) {
+				entry.offset = mDir.getLong(field);
+				field += 8;
+			}
+			
+			if(entry.size < 0 || entry.compressed < 0 || entry.offset < 0)
+				break;
+			return;
+		}
+		
+		throw new ZipException("Zip64 extra field of " + entry.name + " is damaged");
+	}
+}
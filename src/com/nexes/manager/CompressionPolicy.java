@@ -0,0 +1,121 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.util.HashSet;
+import java.util.zip.Deflater;
+
+/**
+ * Decides which files a ZipWriter deflates and which it only stores.
+ * <br>
+ * <br>
+ * Photos, music, video and other archives are already compressed, and 
+ * deflating them again costs a lot of time to save a few bytes. Files 
+ * with one of those extensions are stored as they are. For any other 
+ * file the start of it is looked at, and if its bytes are spread so 
+ * evenly that deflate would find next to nothing to squeeze it is 
+ * stored too.
+ * <br>
+ * <br>
+ * The deflate level is set per policy, so each zip job can trade speed 
+ * for size. A policy is not changed once made and may be shared by 
+ * several threads.
+ *
+ * @author Joe Berria
+ */
+public class CompressionPolicy {
+	/**
+	 * how much of a file is looked at before deciding
+	 */
+	public static final int SAMPLE_SIZE = 	1024;
+	/* shorter samples say too little, those files are deflated */
+	private static final int MIN_SAMPLE = 	256;
+	/* bits per byte, random data sampled 1 Kb at a time comes out near 7.8 */
+	private static final double MAX_ENTROPY = 7.5;
+	
+	private static final String[] STORED_TYPES = {
+		"jpg", "jpeg", "png", "gif", "webp",
+		"mp3", "m4a", "m4p", "aac", "ogg", "oga", "opus", "flac", "wma",
+		"mp4", "m4v", "3gp", "3g2", "mkv", "webm", "wmv", "mov", "avi",
+		"apk", "jar", "zip", "gz", "gzip", "tgz", "bz2", "xz", "7z", "rar",
+		"docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"
+	};
+	
+	private final int mLevel;
+	private final HashSet<String> mStoredTypes = new HashSet<String>();
+	
+	public CompressionPolicy() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * @param level	the deflate level, from Deflater.BEST_SPEED to 
+	 * 				Deflater.BEST_COMPRESSION. Deflater.NO_COMPRESSION
+	 * 				stores every file.
+	 */
+	public CompressionPolicy(int level) {
+		mLevel = level;
+		
+		for(int i = 0; i < STORED_TYPES.length; i++)
+			mStoredTypes.add(STORED_TYPES[i]);
+	}
+	
+	public int getLevel() {
+		return mLevel;
+	}
+	
+	/**
+	 * @param name		the name of the file
+	 * @param sample	the first bytes of the file
+	 * @param length	how many bytes of sample were read, up to SAMPLE_SIZE
+	 * @return			true if the file should be stored, false to deflate it
+	 */
+	public boolean isStored(String name, byte[] sample, int length) {
+		if(mLevel == Deflater.NO_COMPRESSION)
+			return true;
+		
+		int dot = name.lastIndexOf('.');
+		
+		if(dot >= 0 && mStoredTypes.contains(name.substring(dot + 1).toLowerCase()))
+			return true;
+		
+		return length >= MIN_SAMPLE && entropy(sample, length) > MAX_ENTROPY;
+	}
+	
+	/*
+	 * Shannon entropy of the bytes, in bits per byte
+	 */
+	private static double entropy(byte[] data, int length) {
+		int[] counts = new int[256];
+		double bits = 0;
+		
+		for(int i = 0; i < length; i++)
+			counts[data[i] & 0xff]++;
+		
+		for(int i = 0; i < counts.length; i++) {
+			if(counts[i] == 0)
+				continue;
+			
+			double p = (double)counts[i] / length;
+			bits -= p * Math.log(p);
+		}
+		
+		return bits / Math.log(2);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.util.ArrayList;
+
+/**
+ * Holds the outcome of copying a file or a whole directory tree. One
+ * object is shared by every thread working on the same tree, so all
+ * methods are synchronized.
+ *
+ * @author Joe Berria
+ */
+public class CopyResult {
+	private int mFileCount = 0;
+	private int mDirCount = 0;
+	private long mByteCount = 0;
+	private int mVerifiedCount = 0;
+	private int mSkippedCount = 0;
+	private int mDeletedCount = 0;
+	private boolean mCanceled = false;
+	private ArrayList<String> mFailed = new ArrayList<String>();
+	private ArrayList<String> mMismatched = new ArrayList<String>();
+
+	/**
+	 * Adds the counts of another result to this one.
+	 *
+	 * @param other	the result to add
+	 */
+	public synchronized void add(CopyResult other) {
+		synchronized (other) {
+			mFileCount += other.mFileCount;
+			mDirCount += other.mDirCount;
+			mByteCount += other.mByteCount;
+			mVerifiedCount += other.mVerifiedCount;
+			mSkippedCount += other.mSkippedCount;
+			mDeletedCount += other.mDeletedCount;
+			mCanceled |= other.mCanceled;
+			mFailed.addAll(other.mFailed);
+			mMismatched.addAll(other.mMismatched);
+		}
+	}
+
+	synchronized void addFile(long bytes) {
+		mFileCount++;
+		mByteCount += bytes;
+	}
+
+	synchronized void addDir() {
+		mDirCount++;
+	}
+
+	synchronized void addFailure(String path) {
+		mFailed.add(path);
+	}
+
+	synchronized void addVerified() {
+		mVerifiedCount++;
+	}
+
+	synchronized void addSkipped() {
+		mSkippedCount++;
+	}
+
+	synchronized void addDeleted() {
+		mDeletedCount++;
+	}
+
+	synchronized void addMismatch(String path) {
+		mMismatched.add(path);
+	}
+
+	synchronized void setCanceled() {
+		mCanceled = true;
+	}
+
+	/**
+	 * @return	the number of files that were copied
+	 */
+	public synchronized int getFileCount() {
+		return mFileCount;
+	}
+
+	/**
+	 * @return	the number of directories that were created
+	 */
+	public synchronized int getDirCount() {
+		return mDirCount;
+	}
+
+	/**
+	 * @return	the number of bytes written
+	 */
+	public synchronized long getByteCount() {
+		return mByteCount;
+	}
+
+	/**
+	 * @return	the paths of every file or folder that could not be copied
+	 */
+	public synchronized ArrayList<String> getFailures() {
+		return new ArrayList<String>(mFailed);
+	}
+
+	/**
+	 * @return	the number of copies that were read back and matched their source
+	 */
+	public synchronized int getVerifiedCount() {
+		return mVerifiedCount;
+	}
+
+	/**
+	 * @return	the number of files a sync left alone because they were
+	 * 			already up to date
+	 */
+	public synchronized int getSkippedCount() {
+		return mSkippedCount;
+	}
+
+	/**
+	 * @return	the number of files and folders a sync removed from the
+	 * 			destination because they were not in the source
+	 */
+	public synchronized int getDeletedCount() {
+		return mDeletedCount;
+	}
+
+	/**
+	 * @return	the paths of every copied file whose contents did not match
+	 * 			its source when read back
+	 */
+	public synchronized ArrayList<String> getMismatches() {
+		return new ArrayList<String>(mMismatched);
+	}
+
+	/**
+	 * @return	true if the copy was stopped before it finished
+	 */
+	public synchronized boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * @return	true if nothing failed or mismatched and the copy ran to the end
+	 */
+	public synchronized boolean isSuccessful() {
+		return mFailed.size() == 0 && mMismatched.size() == 0 && !mCanceled;
+	}
+}
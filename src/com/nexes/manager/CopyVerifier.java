@@ -0,0 +1,142 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * Checks copied files against the checksum their source had while it
+ * was being copied. The destination is read back on a thread of its own,
+ * so checking one file overlaps with copying the next.
+ * <br>
+ * <br>
+ * The checksum is a CRC32, which is what FileCopier computes when it is
+ * handed one. Every check is recorded in the CopyResult given to the
+ * constructor, a file that doesn't match is listed by getMismatches.
+ *
+ * @author Joe Berria
+ */
+public class CopyVerifier {
+	private static final int BUFFER_SIZE = 	64 * 1024;
+	private static final int QUEUE_SIZE = 	64;
+
+	private final CopyResult mResult;
+	private final ThreadPoolExecutor mPool;
+	private final ThreadLocal<byte[]> mBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	/**
+	 * @param result	where the outcome of every check is recorded
+	 */
+	public CopyVerifier(CopyResult result) {
+		mResult = result;
+		/* if the reads fall too far behind, the copying thread checks 
+		 * the next file itself rather than queue without end */
+		mPool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+									   new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+									   new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Queues dest to be read back and compared to the checksum of its source.
+	 *
+	 * @param dest		the copy to check
+	 * @param expected	the CRC32 value of the source file
+	 */
+	public void verify(final File dest, final long expected) {
+		mPool.execute(new Runnable() {
+			public void run() {
+				check(dest, expected);
+			}
+		});
+	}
+
+	/**
+	 * Waits for every queued check to finish. The verifier can't be used
+	 * after this.
+	 *
+	 * @return	the result given to the constructor
+	 */
+	public CopyResult finish() {
+		mPool.shutdown();
+
+		try {
+			while(!mPool.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} catch (InterruptedException e) {
+			mPool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		return mResult;
+	}
+
+	/**
+	 * Reads target to the end.
+	 *
+	 * @param target	the file to read
+	 * @param data		buffer to read through
+	 * @return			the CRC32 value of the contents of target
+	 * @throws IOException
+	 */
+	static long checksum(File target, byte[] data) throws IOException {
+		FileInputStream in = new FileInputStream(target);
+		CRC32 crc = new CRC32();
+		int read;
+
+		try {
+			while((read = in.read(data, 0, data.length)) != -1)
+				crc.update(data, 0, read);
+		} finally {
+			in.close();
+		}
+
+		return crc.getValue();
+	}
+
+	private void check(File dest, long expected) {
+		long actual;
+
+		try {
+			actual = checksum(dest, mBuffers.get());
+
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			mResult.addMismatch(dest.getPath());
+			return;
+		}
+
+		if(actual == expected)
+			mResult.addVerified();
+		else
+			mResult.addMismatch(dest.getPath());
+	}
+}
@@ -0,0 +1,397 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Updates an existing copy of a file in place, the way rsync does, so only
+ * the parts of it that changed are written again.
+ * <br>
+ * <br>
+ * The copy is cut into blocks and each block gets a weak checksum that can
+ * be rolled along a byte at a time, and an MD5. The source is then scanned
+ * with a window one block long. Where the weak checksum of the window finds
+ * a block and the MD5 agrees, the window holds that block's data and the
+ * scan jumps a whole block ahead, otherwise the window rolls on one byte.
+ * <br>
+ * <br>
+ * Because the copy is written in place, a block only saves a write when it
+ * is found at the same offset it has in the copy. Data that has moved still
+ * has to be written at its new offset, it is written from the source bytes
+ * that are already in hand, and the scan then moves to the next block
+ * boundary, where the source may line up with the copy again. Anything
+ * past the end of the source is cut off.
+ * <br>
+ * <br>
+ * If the update fails or is canceled part way the copy is left half old
+ * and half new. Its size or time will then differ from the source, so a
+ * TreeSync will pick it up again next time. An object of this class reuses
+ * its buffers and should not be shared between threads.
+ *
+ * @author Joe Berria
+ */
+public class DeltaCopier {
+	private static final int MIN_BLOCK = 		4 * 1024;
+	/* keeps the signature of a huge file to a couple of megabytes */
+	private static final int MAX_BLOCKS = 		32 * 1024;
+	private static final int READ_SIZE = 		1024 * 1024;
+	private static final int DIGEST_LENGTH = 	16;
+
+	private final WritePolicy mPolicy;
+	private final ProgressTracker mProgress;
+	private MessageDigest mDigest;
+
+	/* signature of the copy */
+	private int mBlock;
+	private int[] mWeak;
+	private byte[] mStrong;
+	private int[] mHead;
+	private int[] mNext;
+
+	/* source window */
+	private byte[] mData;
+	private long mDataStart;
+	private int mDataLength;
+	private long mLiteral;
+	private long mWritten;
+
+	/**
+	 * @param progress	counts the source bytes as they are scanned, may be null
+	 */
+	public DeltaCopier(ProgressTracker progress) {
+		this(new WritePolicy(), progress);
+	}
+
+	/**
+	 * @param policy	syncs the updated file as it says, the file is
+	 * 					never preallocated since its old contents are used
+	 * @param progress	counts the source bytes as they are scanned, may be null
+	 */
+	public DeltaCopier(WritePolicy policy, ProgressTracker progress) {
+		mPolicy = policy;
+		mProgress = progress;
+	}
+
+	/**
+	 * Makes dest the same as src, rewriting only the regions of dest
+	 * that differ. If dest doesn't exist it is simply written out.
+	 *
+	 * @param src	the file to copy
+	 * @param dest	the out of date copy to update
+	 * @return		the number of bytes that were written to dest
+	 * @throws IOException
+	 */
+	public long copy(File src, File dest) throws IOException {
+		FileInputStream in = new FileInputStream(src);
+		RandomAccessFile out = null;
+
+		if(mDigest == null) {
+			try {
+				mDigest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("MD5 not available");
+			}
+		}
+
+		try {
+			out = new RandomAccessFile(dest, "rw");
+
+			long written = copy(in.getChannel(), out.getChannel());
+			RandomAccessFile done = out;
+
+			out = null;
+			mPolicy.close(done, dest, done.length());
+			return written;
+
+		} finally {
+			in.close();
+			if(out != null)
+				out.close();
+		}
+	}
+
+	private long copy(FileChannel in, FileChannel out) throws IOException {
+		long src_length = in.size();
+
+		sign(out);
+
+		int block = mBlock;
+		int a = 0, b = 0;
+		boolean rolled = false;
+		long pos = 0;
+
+		mData = mData == null || mData.length < block * 4 ?
+				new byte[Math.max(READ_SIZE, block * 4)] : mData;
+		mDataStart = 0;
+		mDataLength = 0;
+		mLiteral = 0;
+		mWritten = 0;
+
+		while(pos + block <= src_length) {
+			ensure(in, out, pos, (int)Math.min(block + 1, src_length - pos));
+			int off = (int)(pos - mDataStart);
+
+			if(!rolled) {
+				a = b = 0;
+				for(int i = 0; i < block; i++) {
+					a += mData[off + i] & 0xff;
+					b += a;
+				}
+				rolled = true;
+			}
+
+			int match = find((a & 0xffff) | (b << 16), pos, off);
+
+			if(match >= 0) {
+				if((long)match * block == pos) {
+					write_literal(out, pos);
+					mLiteral = pos + block;
+				}
+				/* a block found somewhere else is written anyway, so
+				 * only skip up to the next block boundary where the
+				 * copy may line up with the source again */
+				pos = (pos / block + 1) * block;
+				rolled = false;
+				continue;
+			}
+
+			if(pos + block < src_length) {
+				int old_byte = mData[off] & 0xff;
+
+				a += (mData[off + block] & 0xff) - old_byte;
+				b += a - block * old_byte;
+			}
+			pos++;
+		}
+
+		/* the tail is shorter than a block, it is only written if
+		 * it differs from what the copy has there */
+		int tail = (int)(src_length - pos);
+
+		if(tail > 0) {
+			ensure(in, out, pos, tail);
+
+			if(!same_as(out, pos, (int)(pos - mDataStart), tail)) {
+				write_literal(out, src_length);
+				mLiteral = src_length;
+			}
+		}
+
+		write_literal(out, pos);
+		if(mProgress != null)
+			mProgress.addBytes(src_length - mDataStart);
+
+		if(out.size() > src_length)
+			out.truncate(src_length);
+
+		return mWritten;
+	}
+
+	/*
+	 * Reads the whole copy and builds the weak and strong checksum of
+	 * every full block, plus a hash table from weak checksum to block.
+	 */
+	private void sign(FileChannel out) throws IOException {
+		long length = out.size();
+		int block = MIN_BLOCK;
+
+		while(length / block > MAX_BLOCKS)
+			block *= 2;
+
+		int count = (int)(length / block);
+		int size = 16;
+
+		while(size < count * 2)
+			size <<= 1;
+
+		mBlock = block;
+		mWeak = new int[count];
+		mStrong = new byte[count * DIGEST_LENGTH];
+		mNext = new int[count];
+		mHead = new int[size];
+		Arrays.fill(mHead, -1);
+
+		byte[] data = new byte[block];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+
+		out.position(0);
+		for(int k = 0; k < count; k++) {
+			buffer.clear();
+			while(buffer.hasRemaining())
+				if(out.read(buffer) == -1)
+					throw new IOException("Copy shrank while it was read");
+
+			int a = 0, b = 0;
+			for(int i = 0; i < block; i++) {
+				a += data[i] & 0xff;
+				b += a;
+			}
+
+			mDigest.update(data, 0, block);
+			mWeak[k] = (a & 0xffff) | (b << 16);
+			System.arraycopy(mDigest.digest(), 0, mStrong, k * DIGEST_LENGTH, DIGEST_LENGTH);
+			add_block(k);
+		}
+	}
+
+	private void add_block(int k) {
+		int slot = slot(mWeak[k]);
+
+		/* identical blocks, like runs of zeros in an image, only
+		 * need to be found once */
+		for(int i = mHead[slot]; i != -1; i = mNext[i])
+			if(mWeak[i] == mWeak[k] && same_digest(i, mStrong, k * DIGEST_LENGTH))
+				return;
+
+		mNext[k] = mHead[slot];
+		mHead[slot] = k;
+	}
+
+	/*
+	 * Returns the block that holds the same bytes as the window at pos,
+	 * preferring the block at pos itself, or -1 if there is none.
+	 */
+	private int find(int weak, long pos, int off) throws IOException {
+		byte[] digest = null;
+		int block = mBlock;
+
+		if(pos % block == 0 && pos / block < mWeak.length) {
+			int k = (int)(pos / block);
+
+			if(mWeak[k] == weak) {
+				digest = digest(off);
+				if(same_digest(k, digest, 0))
+					return k;
+			}
+		}
+
+		for(int i = mHead[slot(weak)]; i != -1; i = mNext[i]) {
+			if(mWeak[i] != weak)
+				continue;
+
+			if(digest == null)
+				digest = digest(off);
+			if(same_digest(i, digest, 0))
+				return i;
+		}
+
+		return -1;
+	}
+
+	private byte[] digest(int off) {
+		mDigest.update(mData, off, mBlock);
+		return mDigest.digest();
+	}
+
+	private boolean same_digest(int k, byte[] digest, int off) {
+		int base = k * DIGEST_LENGTH;
+
+		for(int i = 0; i < DIGEST_LENGTH; i++)
+			if(mStrong[base + i] != digest[off + i])
+				return false;
+
+		return true;
+	}
+
+	private int slot(int weak) {
+		return (weak ^ (weak >>> 15)) & (mHead.length - 1);
+	}
+
+	/*
+	 * Makes sure the window holds need bytes from pos on. Moving the
+	 * window drops the bytes before pos, so whatever literal is still
+	 * pending is written out first.
+	 */
+	private void ensure(FileChannel in, FileChannel out, long pos, int need) throws IOException {
+		if(pos - mDataStart + need <= mDataLength)
+			return;
+
+		write_literal(out, pos);
+		mLiteral = pos;
+
+		int keep = (int)(mDataStart + mDataLength - pos);
+
+		System.arraycopy(mData, (int)(pos - mDataStart), mData, 0, keep);
+		if(mProgress != null) {
+			mProgress.addBytes(pos - mDataStart);
+			mProgress.checkCanceled();
+		}
+
+		mDataStart = pos;
+		mDataLength = keep;
+
+		ByteBuffer buffer = ByteBuffer.wrap(mData, keep, mData.length - keep);
+		in.position(pos + keep);
+
+		while(buffer.hasRemaining() && in.read(buffer) != -1)
+			;
+
+		mDataLength = buffer.position();
+	}
+
+	/*
+	 * Writes the pending literal, from mLiteral up to end, into the copy
+	 */
+	private void write_literal(FileChannel out, long end) throws IOException {
+		if(end <= mLiteral)
+			return;
+
+		ByteBuffer buffer = ByteBuffer.wrap(mData, (int)(mLiteral - mDataStart),
+											(int)(end - mLiteral));
+		long position = mLiteral;
+
+		while(buffer.hasRemaining())
+			position += out.write(buffer, position);
+
+		mWritten += end - mLiteral;
+		mLiteral = end;
+	}
+
+	private boolean same_as(FileChannel out, long pos, int off, int length) throws IOException {
+		if(pos + length > out.size())
+			return false;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		long position = pos;
+
+		while(buffer.hasRemaining()) {
+			int read = out.read(buffer, position);
+
+			if(read == -1)
+				return false;
+			position += read;
+		}
+
+		byte[] old = buffer.array();
+		for(int i = 0; i < length; i++)
+			if(old[i] != mData[off + i])
+				return false;
+
+		return true;
+	}
+}
@@ -0,0 +1,374 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts the entries of a listing. What an entry is sorted by, its lower 
+ * case name, extension, size or time, is worked out once before sorting
+ * into an array of keys, so comparing two entries makes no new strings.
+ * Lower casing both names in every comparison made n log n strings.
+ * <br>
+ * <br>
+ * Natural order compares runs of digits by their value, so IMG_2 comes
+ * before IMG_10. Size, type and date put the folders first, the keys are
+ * split into folders and files in one pass and each part sorted on its
+ * own. Entries that compare the same keep the order they were listed in.
+ * <br>
+ * <br>
+ * A part of more than PARALLEL_SORT entries is cut into one piece per 
+ * processor. The pieces are sorted at the same time, then merged two by 
+ * two, also at the same time, until one is left.
+ *
+ * @author Joe Berria
+ */
+final class EntrySorter {
+	/* fewer entries than this are sorted on the calling thread */
+	private static final int PARALLEL_SORT = 20000;
+	
+	private EntrySorter() { }
+	
+	private static final class Key {
+		final FileEntry entry;
+		final String name;
+		final String ext;
+		final long value;
+		
+		Key(FileEntry entry, int sortType) {
+			this.entry = entry;
+			
+			switch(sortType) {
+				case FileManager.SORT_SIZE:
+					name = null;
+					ext = null;
+					value = entry.length();
+					break;
+					
+				case FileManager.SORT_DATE:
+					name = null;
+					ext = null;
+					value = entry.lastModified();
+					break;
+					
+				case FileManager.SORT_TYPE:
+					name = entry.getName().toLowerCase();
+					/* as before, a name without a dot is its own extension */
+					ext = name.substring(name.lastIndexOf(".") + 1);
+					value = 0;
+					break;
+					
+				default:
+					name = entry.getName().toLowerCase();
+					ext = null;
+					value = 0;
+					break;
+			}
+		}
+	}
+	
+	private static final Comparator<Key> alph = new Comparator<Key>() {
+		@Override
+		public int compare(Key arg0, Key arg1) {
+			return arg0.name.compareTo(arg1.name);
+		}
+	};
+	
+	private static final Comparator<Key> natural = new Comparator<Key>() {
+		@Override
+		public int compare(Key arg0, Key arg1) {
+			return compareNatural(arg0.name, arg1.name);
+		}
+	};
+	
+	private static final Comparator<Key> type = new Comparator<Key>() {
+		@Override
+		public int compare(Key arg0, Key arg1) {
+			int ret = arg0.ext.compareTo(arg1.ext);
+			
+			return ret != 0 ? ret : arg0.name.compareTo(arg1.name);
+		}
+	};
+	
+	private static final Comparator<Key> size = new Comparator<Key>() {
+		@Override
+		public int compare(Key arg0, Key arg1) {
+			return arg0.value < arg1.value ? -1 : (arg0.value == arg1.value ? 0 : 1);
+		}
+	};
+	
+	/* newest first */
+	private static final Comparator<Key> date = new Comparator<Key>() {
+		@Override
+		public int compare(Key arg0, Key arg1) {
+			return arg0.value > arg1.value ? -1 : (arg0.value == arg1.value ? 0 : 1);
+		}
+	};
+	
+	/**
+	 * Sorts entries in place.
+	 * 
+	 * @param entries	the entries of a listing
+	 * @param sortType	one of FileManager's sort types
+	 */
+	static void sort(ArrayList<FileEntry> entries, int sortType) {
+		Comparator<Key> order = comparator(sortType);
+		
+		if(order == null)
+			return;
+		
+		boolean folders_first = sortType == FileManager.SORT_SIZE ||
+								sortType == FileManager.SORT_TYPE ||
+								sortType == FileManager.SORT_DATE;
+		int len = entries.size();
+		int folders = 0;
+		
+		if(folders_first)
+			for (int i = 0; i < len; i++)
+				if(entries.get(i).isDirectory())
+					folders++;
+		
+		/* folders then files, each in the order they were listed */
+		Key[] keys = new Key[len];
+		int next_folder = 0;
+		int next_file = folders;
+		
+		for (int i = 0; i < len; i++) {
+			FileEntry entry = entries.get(i);
+			
+			if(folders_first && entry.isDirectory())
+				keys[next_folder++] = new Key(entry, sortType);
+			else
+				keys[next_file++] = new Key(entry, sortType);
+		}
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		
+		sort_range(keys, 0, folders, order, threads);
+		sort_range(keys, folders, len, order, threads);
+		
+		for (int i = 0; i < len; i++)
+			entries.set(i, keys[i].entry);
+	}
+	
+	/**
+	 * Compares two names with their runs of digits compared by value, 
+	 * "img_2" is less than "img_10". Names that differ only in leading 
+	 * zeros are put in plain order.
+	 * 
+	 * @param a	a name
+	 * @param b	another name
+	 * @return	less than, equal to or greater than 0 as a is before, the
+	 * 			same as or after b
+	 */
+	static int compareNatural(String a, String b) {
+		int alen = a.length();
+		int blen = b.length();
+		int i = 0, j = 0;
+		
+		while(i < alen && j < blen) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(j);
+			
+			if(!is_digit(ca) || !is_digit(cb)) {
+				if(ca != cb)
+					return ca - cb;
+				i++;
+				j++;
+				continue;
+			}
+			
+			/* the longer run of digits without its leading zeros is larger */
+			while(i < alen && a.charAt(i) == '0')
+				i++;
+			while(j < blen && b.charAt(j) == '0')
+				j++;
+			
+			int aend = i, bend = j;
+			
+			while(aend < alen && is_digit(a.charAt(aend)))
+				aend++;
+			while(bend < blen && is_digit(b.charAt(bend)))
+				bend++;
+			
+			if(aend - i != bend - j)
+				return (aend - i) - (bend - j);
+			
+			for (; i < aend; i++, j++)
+				if(a.charAt(i) != b.charAt(j))
+					return a.charAt(i) - b.charAt(j);
+		}
+		
+		if(i < alen || j < blen)
+			return (alen - i) - (blen - j);
+		
+		return a.compareTo(b);
+	}
+	
+	private static Comparator<Key> comparator(int sortType) {
+		switch(sortType) {
+			case FileManager.SORT_ALPHA:	return alph;
+			case FileManager.SORT_TYPE:		return type;
+			case FileManager.SORT_SIZE:		return size;
+			case FileManager.SORT_DATE:		return date;
+			case FileManager.SORT_NATURAL:	return natural;
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * Sorts keys from start up to end, keeping the order of equal keys.
+	 */
+	private static void sort_range(final Key[] keys, int start, int end, 
+								   final Comparator<Key> order, int threads) {
+		int len = end - start;
+		
+		if(len < PARALLEL_SORT || threads < 2) {
+			/* a merge sort, it keeps the order of equal keys */
+			Arrays.sort(keys, start, end, order);
+			return;
+		}
+		
+		int pieces = Math.min(threads, len / (PARALLEL_SORT / 2));
+		int[] bounds = new int[pieces + 1];
+		ArrayList<Runnable> work = new ArrayList<Runnable>(pieces);
+		
+		for (int i = 0; i <= pieces; i++)
+			bounds[i] = start + (int)((long)len * i / pieces);
+		
+		for (int i = 0; i < pieces; i++) {
+			final int from = bounds[i];
+			final int to = bounds[i + 1];
+			
+			work.add(new Runnable() {
+				public void run() {
+					Arrays.sort(keys, from, to, order);
+				}
+			});
+		}
+		
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads - 1, threads - 1, 
+														 0, TimeUnit.MILLISECONDS,
+														 new LinkedBlockingQueue<Runnable>());
+		
+		try {
+			run_all(pool, work);
+			
+			/* merge neighbouring pieces until one is left */
+			Key[] src = keys;
+			Key[] dest = new Key[keys.length];
+			
+			while(bounds.length > 2) {
+				final Key[] from = src;
+				final Key[] to = dest;
+				int[] merged = new int[bounds.length / 2 + 1];
+				int count = 0;
+				
+				work.clear();
+				for (int i = 0; i + 1 < bounds.length; i += 2) {
+					final int lo = bounds[i];
+					final int mid = bounds[i + 1];
+					final int hi = i + 2 < bounds.length ? bounds[i + 2] : mid;
+					
+					merged[count++] = lo;
+					work.add(new Runnable() {
+						public void run() {
+							merge(from, lo, mid, hi, to, order);
+						}
+					});
+				}
+				merged[count++] = end;
+				
+				run_all(pool, work);
+				bounds = new int[count];
+				System.arraycopy(merged, 0, bounds, 0, count);
+				src = dest;
+				dest = from;
+			}
+			
+			if(src != keys)
+				System.arraycopy(src, start, keys, start, len);
+			
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/*
+	 * Merges the sorted runs from lo up to mid and mid up to hi of src 
+	 * into the same places in dest, the first run wins ties.
+	 */
+	private static void merge(Key[] src, int lo, int mid, int hi, Key[] dest, 
+							  Comparator<Key> order) {
+		int i = lo, j = mid, k = lo;
+		
+		while(i < mid && j < hi)
+			dest[k++] = order.compare(src[j], src[i]) < 0 ? src[j++] : src[i++];
+		
+		while(i < mid)
+			dest[k++] = src[i++];
+		while(j < hi)
+			dest[k++] = src[j++];
+	}
+	
+	/*
+	 * Runs the last task on this thread and the rest on pool, and waits 
+	 * for all of them. The tasks are short, an interrupt is kept for the
+	 * caller rather than leaving them running on the keys.
+	 */
+	private static void run_all(ThreadPoolExecutor pool, ArrayList<Runnable> work) {
+		ArrayList<Future<?>> pending = new ArrayList<Future<?>>(work.size());
+		boolean interrupted = false;
+		
+		for (int i = 0; i < work.size() - 1; i++)
+			pending.add(pool.submit(work.get(i)));
+		
+		work.get(work.size() - 1).run();
+		
+		for (Future<?> future : pending) {
+			while(true) {
+				try {
+					future.get();
+					break;
+					
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private static boolean is_digit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -29,6 +29,7 @@ import android.os.Message;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -38,6 +39,7 @@ import android.view.View.OnClickListener;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.webkit.MimeTypeMap;
 import android.widget.LinearLayout;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
@@ -74,11 +76,24 @@ public class EventHandler implements OnClickListener {
 	private static final int ZIP_TYPE =			0x04;
 	private static final int DELETE_TYPE = 		0x05;
 	private static final int MANAGE_DIALOG =	 0x06;
+	private static final int UNZIP_SELECTED_TYPE = 0x07;
+	private static final int VIEW_ENTRY_TYPE = 	0x08;
+	private static final int TAR_TYPE = 		0x09;
+	private static final int UNTAR_TYPE = 		0x0a;
+	private static final int TEST_TYPE = 		0x0b;
+	private static final int UPDATE_ZIP_TYPE = 	0x0c;
+	
+	private static final int KB = 1024;
+	private static final int MG = KB * KB;
+	private static final int GB = MG * KB;
+	/* files read from a large folder before they are added to the list */
+	private static final int LISTING_PAGE = 1000;
 	
 	private final Context mContext;
 	private final FileManager mFileMang;
 	private ThumbnailCreator mThumbnail;
 	private TableRow mDelegate;
+	private PagingWork mPaging;
 	
 	private boolean multi_select_flag = false;
 	private boolean delete_after_copy = false;
@@ -104,6 +119,7 @@ public class EventHandler implements OnClickListener {
 		
 		mDataSource = new ArrayList<String>(mFileMang.setHomeDir
 						(Environment.getExternalStorageDirectory().getPath()));
+		page_directory();
 	}
 	
 	/**
@@ -119,6 +135,7 @@ public class EventHandler implements OnClickListener {
 		mFileMang = manager;
 		
 		mDataSource = new ArrayList<String>(mFileMang.getNextDir(location, true));
+		page_directory();
 	}
 
 	/**
@@ -267,6 +284,63 @@ public class EventHandler implements OnClickListener {
 		new BackgroundWork(UNZIPTO_TYPE).execute(name, newDir, oldDir);
 	}
 	
+	/**
+	 * This will extract only some of the files of a zip file, keeping 
+	 * the folders they have in the zip file.
+	 * 
+	 * @param zipPath	the full path of the zip file
+	 * @param entries	the names of the entries to extract
+	 * @param newDir	the dir where to extract to
+	 */
+	public void unZipEntries(String zipPath, String[] entries, String newDir) {
+		String[] params = new String[entries.length + 2];
+		
+		params[0] = zipPath;
+		params[1] = newDir;
+		System.arraycopy(entries, 0, params, 2, entries.length);
+		
+		new BackgroundWork(UNZIP_SELECTED_TYPE).execute(params);
+	}
+	
+	/**
+	 * Extracts a .tar, .tar.gz or .tgz file, or gunzips a .gz file.
+	 * 
+	 * @param archive	the full path of the archive
+	 * @param newDir	the dir where to extract to
+	 */
+	public void unTarFile(String archive, String newDir) {
+		new BackgroundWork(UNTAR_TYPE).execute(archive, newDir);
+	}
+	
+	/**
+	 * Creates a tar.gz file
+	 * 
+	 * @param tarPath	the path to the directory you want to tar
+	 */
+	public void tarFile(String tarPath) {
+		new BackgroundWork(TAR_TYPE).execute(tarPath);
+	}
+	
+	/**
+	 * Extracts a file of the zip file being browsed and opens it with 
+	 * whatever application handles its type.
+	 * 
+	 * @param name	the name of the file in the current directory
+	 */
+	public void openArchiveEntry(String name) {
+		new BackgroundWork(VIEW_ENTRY_TYPE).execute(name);
+	}
+	
+	/**
+	 * Checks every file in a zip file without extracting anything and
+	 * tells the user which ones are damaged.
+	 * 
+	 * @param zipPath	the full path of the zip file
+	 */
+	public void testZipFile(String zipPath) {
+		new BackgroundWork(TEST_TYPE).execute(zipPath);
+	}
+	
 	/**
 	 * Creates a zip file
 	 * 
@@ -276,6 +350,15 @@ public class EventHandler implements OnClickListener {
 		new BackgroundWork(ZIP_TYPE).execute(zipPath);
 	}
 	
+	/**
+	 * Brings the zip file made by zipFile up to date with its folder
+	 * 
+	 * @param zipPath	the path to the directory that was zipped
+	 */
+	public void updateZipFile(String zipPath) {
+		new BackgroundWork(UPDATE_ZIP_TYPE).execute(zipPath);
+	}
+	
 	/**
 	 * this will stop our background thread that creates thumbnail icons
 	 * if the thread is running. this should be stopped when ever 
@@ -467,6 +550,28 @@ public class EventHandler implements OnClickListener {
 			mDataSource.add(data);
 		
 		mDelegate.notifyDataSetChanged();
+		page_directory();
+	}
+	
+	/*
+	 * Reads the rest of the current folder in the background if the
+	 * FileManager listed only its first page, and stops reading a folder
+	 * that is no longer shown.
+	 */
+	private void page_directory() {
+		ListingPager pager = mFileMang.getPager();
+		
+		if(mPaging != null && mPaging.pager == pager)
+			return;
+		
+		if(mPaging != null)
+			mPaging.cancel(false);
+		
+		mPaging = null;
+		if(pager != null) {
+			mPaging = new PagingWork(pager);
+			mPaging.execute();
+		}
 	}
 
 	/**
@@ -534,9 +639,6 @@ public class EventHandler implements OnClickListener {
 	 * @author Joe Berria
 	 */
     public class TableRow extends ArrayAdapter<String> {
-    	private final int KB = 1024;
-    	private final int MG = KB * KB;
-    	private final int GB = MG * KB;    	
     	private String display_size;
     	private ArrayList<Integer> positions;
     	private LinearLayout hidden_layout;
@@ -591,7 +693,7 @@ public class EventHandler implements OnClickListener {
     		notifyDataSetChanged();
     	}
     	
-    	public String getFilePermissions(File file) {
+    	public String getFilePermissions(FileEntry file) {
     		String per = "-";
     	    		
     		if(file.isDirectory())
@@ -608,12 +710,15 @@ public class EventHandler implements OnClickListener {
     	public View getView(int position, View convertView, ViewGroup parent) {
         	final ViewHolder mViewHolder;
     		int num_items = 0;
-    		String temp = mFileMang.getCurrentDir();
-    		File file = new File(temp + "/" + mDataSource.get(position));
-    		String[] list = file.list();
+    		FileEntry file = mFileMang.getEntry(mDataSource.get(position));
     		
-    		if(list != null)
-    			num_items = list.length;
+    		/* only a folder's item count isn't in its entry */
+    		if(file.isDirectory() && file.canRead()) {
+    			String[] list = mFileMang.getFile(file.getName()).list();
+    			
+    			if(list != null)
+    				num_items = list.length;
+    		}
    
     		if(convertView == null) {
     			LayoutInflater inflater = (LayoutInflater) mContext.
@@ -641,11 +746,10 @@ public class EventHandler implements OnClickListener {
     		mViewHolder.bottomView.setTextColor(mColor);
     		
     		if(mThumbnail == null)
-    			mThumbnail = new ThumbnailCreator(52, 52);
+    			mThumbnail = new ThumbnailCreator(52, 52, mFileMang);
     		
-    		if(file != null && file.isFile()) {
-    			String ext = file.toString();
-    			String sub_ext = ext.substring(ext.lastIndexOf(".") + 1);
+    		if(file.isFile()) {
+    			String sub_ext = file.getExtension();
     			
     			/* This series of else if statements will determine which 
     			 * icon is displayed 
@@ -667,7 +771,8 @@ public class EventHandler implements OnClickListener {
     					   sub_ext.equalsIgnoreCase("tiff")) {
     				
     				if(thumbnail_flag && file.length() != 0) {
-    					Bitmap thumb = mThumbnail.isBitmapCached(file.getPath());
+    					Bitmap thumb = mThumbnail.isBitmapCached(mFileMang.getFile(file.getName()).
+    															 getPath());
 
     					if (thumb == null) {
     						final Handler handle = new Handler(new Handler.Callback() {
@@ -738,8 +843,8 @@ public class EventHandler implements OnClickListener {
     				mViewHolder.icon.setImageResource(R.drawable.text);
     			}
     			
-    		} else if (file != null && file.isDirectory()) {
-    			if (file.canRead() && file.list().length > 0)
+    		} else if (file.isDirectory()) {
+    			if (num_items > 0)
     				mViewHolder.icon.setImageResource(R.drawable.folder_full);
     			else
     				mViewHolder.icon.setImageResource(R.drawable.folder);
@@ -781,6 +886,82 @@ public class EventHandler implements OnClickListener {
     		
     		mMultiSelectData.add(src);
     	}
+    	
+    	/*
+    	 * Finds the rows of the selected files again after the list was reordered.
+    	 */
+    	private void remap_positions() {
+    		if(positions == null || positions.isEmpty() || mMultiSelectData == null)
+    			return;
+    		
+    		positions.clear();
+    		for (int i = 0; i < mDataSource.size(); i++)
+    			if(mMultiSelectData.contains(mFileMang.getFile(mDataSource.get(i)).getPath()))
+    				positions.add(i);
+    	}
+    }
+    
+    /**
+     * Reads the files of a large folder a page at a time on a background
+     * thread. Each page is added to the bottom of the list as it is read,
+     * and the list is sorted once the last page is in. The sorting is done
+     * in the background too.
+     * 
+     * @author Joe Berria
+     */
+    private class PagingWork extends AsyncTask<Void, ArrayList<FileEntry>, ArrayList<String>> {
+    	private final ListingPager pager;
+    	
+    	private PagingWork(ListingPager pager) {
+    		this.pager = pager;
+    	}
+    	
+    	@Override
+    	protected ArrayList<String> doInBackground(Void... params) {
+    		while(!pager.isDone()) {
+    			if(isCancelled())
+    				return null;
+    			
+    			publishProgress(pager.nextPage(LISTING_PAGE));
+    		}
+    		
+    		return isCancelled() ? null : pager.sort();
+    	}
+    	
+    	/**
+    	 * This is done on the EDT thread.
+    	 */
+    	@Override
+    	protected void onProgressUpdate(ArrayList<FileEntry>... pages) {
+    		for (ArrayList<FileEntry> page : pages)
+    			if(mFileMang.addPage(pager, page))
+    				for (FileEntry entry : page)
+    					mDataSource.add(entry.getName());
+    		
+    		if(mDelegate != null)
+    			mDelegate.notifyDataSetChanged();
+    	}
+    	
+    	@Override
+    	protected void onPostExecute(ArrayList<String> names) {
+    		ArrayList<String> content = names == null ? null : mFileMang.finishPager(pager, names);
+    		
+    		if(mPaging == this)
+    			mPaging = null;
+    		
+    		if(content == null)
+    			return;
+    		
+    		stopThumbnailThread();
+    		if(mDelegate != null) {
+    			updateDirectory(content);
+    			mDelegate.remap_positions();
+    			
+    		} else {
+    			mDataSource.clear();
+    			mDataSource.addAll(content);
+    		}
+    	}
     }
     
     /**
@@ -795,14 +976,87 @@ public class EventHandler implements OnClickListener {
      * 
      * @author Joe Berria
      */
-    private class BackgroundWork extends AsyncTask<String, Void, ArrayList<String>> {
+    private class BackgroundWork extends AsyncTask<String, ProgressTracker, ArrayList<String>> 
+    							 implements ProgressListener {
     	private String file_name;
     	private ProgressDialog pr_dialog;
     	private int type;
-    	private int copy_rtn;
+    	private CopyResult copy_rtn;
+    	private boolean moving;
+    	private int unzip_failed;
+    	private File opened;
+    	/* shared by the dialog's cancel button and the background thread */
+    	private final ProgressTracker tracker;
     	
     	private BackgroundWork(int type) {
     		this.type = type;
+    		this.tracker = new ProgressTracker(this);
+    	}
+    	
+    	/**
+    	 * Called by the FileManager on our background thread, the 
+    	 * progress is handed over to the EDT thread with publishProgress.
+    	 */
+    	public void onProgress(ProgressTracker progress) {
+    		publishProgress(progress);
+    	}
+    	
+    	/**
+    	 * This is done on the EDT thread.
+    	 */
+    	@Override
+    	protected void onProgressUpdate(ProgressTracker... values) {
+    		ProgressTracker progress = values[0];
+    		long left = progress.getSecondsLeft();
+    		String message = format_size(progress.getBytesDone());
+    		
+    		if(progress.getTotalBytes() > 0)
+    			message += " of " + format_size(progress.getTotalBytes());
+    		
+    		message += "\n" + progress.getFilesDone() + " of " + progress.getTotalFiles() + 
+    				   " files";
+    		
+    		if(progress.getBytesPerSecond() > 0)
+    			message += "\n" + format_size(progress.getBytesPerSecond()) + "/s";
+    		if(left >= 0)
+    			message += String.format(", %d:%02d left", left / 60, left % 60);
+    		
+    		pr_dialog.setProgress(progress.getPercent());
+    		pr_dialog.setMessage(message);
+    	}
+    	
+    	private ProgressDialog show_progress_dialog(String title, String message) {
+    		ProgressDialog dialog = new ProgressDialog(mContext);
+    		
+    		dialog.setTitle(title);
+    		dialog.setMessage(message);
+    		dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+    		dialog.setMax(100);
+    		dialog.setCancelable(true);
+    		dialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+    			public void onCancel(DialogInterface dialog) {
+    				tracker.cancel();
+    			}
+    		});
+    		dialog.setButton("Cancel", new DialogInterface.OnClickListener() {
+    			public void onClick(DialogInterface dialog, int which) {
+    				tracker.cancel();
+    			}
+    		});
+    		dialog.show();
+    		
+    		return dialog;
+    	}
+    	
+    	private String format_size(long size) {
+    		if (size > GB)
+    			return String.format("%.2f Gb", (double)size / GB);
+    		else if (size > MG)
+    			return String.format("%.2f Mb", (double)size / MG);
+    		else if (size > KB)
+    			return String.format("%.2f Kb", (double)size / KB);
+    		
+    		return size + " bytes";
     	}
     	
     	/**
@@ -816,37 +1070,60 @@ public class EventHandler implements OnClickListener {
     			case SEARCH_TYPE:
     				pr_dialog = ProgressDialog.show(mContext, "Searching", 
     												"Searching current file system...",
-    												true, true);
+    												true, true, 
+    												new DialogInterface.OnCancelListener() {
+    					public void onCancel(DialogInterface dialog) {
+    						tracker.cancel();
+    					}
+    				});
     				break;
     				
     			case COPY_TYPE:
-    				pr_dialog = ProgressDialog.show(mContext, "Copying", 
-    												"Copying file...", 
-    												true, false);
+    				pr_dialog = show_progress_dialog("Copying", "Copying file...");
     				break;
     				
     			case UNZIP_TYPE:
-    				pr_dialog = ProgressDialog.show(mContext, "Unzipping", 
-    												"Unpacking zip file please wait...",
-    												true, false);
+    				pr_dialog = show_progress_dialog("Unzipping", 
+    												 "Unpacking zip file please wait...");
     				break;
     				
     			case UNZIPTO_TYPE:
-    				pr_dialog = ProgressDialog.show(mContext, "Unzipping", 
-    												"Unpacking zip file please wait...",
-    												true, false);
+    				pr_dialog = show_progress_dialog("Unzipping", 
+    												 "Unpacking zip file please wait...");
+    				break;
+    				
+    			case UNZIP_SELECTED_TYPE:
+    				pr_dialog = show_progress_dialog("Unzipping", 
+    												 "Extracting selected files...");
     				break;
     			
     			case ZIP_TYPE:
-    				pr_dialog = ProgressDialog.show(mContext, "Zipping", 
-    												"Zipping folder...", 
-    												true, false);
+    				pr_dialog = show_progress_dialog("Zipping", "Zipping folder...");
+    				break;
+    				
+    			case UPDATE_ZIP_TYPE:
+    				pr_dialog = show_progress_dialog("Zipping", "Updating zip file...");
     				break;
     				
     			case DELETE_TYPE:
-    				pr_dialog = ProgressDialog.show(mContext, "Deleting", 
-    												"Deleting files...", 
-    												true, false);
+    				pr_dialog = show_progress_dialog("Deleting", "Deleting files...");
+    				break;
+    				
+    			case VIEW_ENTRY_TYPE:
+    				pr_dialog = show_progress_dialog("Opening", "Extracting file...");
+    				break;
+    				
+    			case TAR_TYPE:
+    				pr_dialog = show_progress_dialog("Compressing", "Creating tar.gz file...");
+    				break;
+    				
+    			case UNTAR_TYPE:
+    				pr_dialog = show_progress_dialog("Extracting", 
+    												 "Unpacking archive please wait...");
+    				break;
+    				
+    			case TEST_TYPE:
+    				pr_dialog = show_progress_dialog("Testing", "Checking zip file...");
     				break;
     		}
     	}
@@ -861,47 +1138,80 @@ public class EventHandler implements OnClickListener {
 				case SEARCH_TYPE:
 					file_name = params[0];
 					ArrayList<String> found = mFileMang.searchInDirectory(mFileMang.getCurrentDir(), 
-																	    file_name);
+																	    file_name, tracker);
 					return found;
 					
 				case COPY_TYPE:
 					int len = params.length;
+					String[] targets;
+					String dest;
 					
 					if(mMultiSelectData != null && !mMultiSelectData.isEmpty()) {
-						for(int i = 1; i < len; i++) {
-							copy_rtn = mFileMang.copyToDirectory(params[i], params[0]);
-							
-							if(delete_after_copy)
-								mFileMang.deleteTarget(params[i]);
-						}
-					} else {
-						copy_rtn = mFileMang.copyToDirectory(params[0], params[1]);
+						targets = new String[len - 1];
+						dest = params[0];
+						
+						for(int i = 1; i < len; i++)
+							targets[i - 1] = params[i];
 						
-						if(delete_after_copy)
-							mFileMang.deleteTarget(params[0]);
+					} else {
+						targets = new String[] {params[0]};
+						dest = params[1];
 					}
 					
+					moving = delete_after_copy;
+					if(moving)
+						copy_rtn = mFileMang.moveTarget(targets, dest, tracker);
+					else
+						copy_rtn = mFileMang.copyTree(targets, dest, tracker);
+					
 					delete_after_copy = false;
 					return null;
 					
 				case UNZIP_TYPE:
-					mFileMang.extractZipFiles(params[0], params[1]);
+					mFileMang.extractZipFiles(params[0], params[1], tracker);
 					return null;
 					
 				case UNZIPTO_TYPE:
-					mFileMang.extractZipFilesFromDir(params[0], params[1], params[2]);
+					mFileMang.extractZipFilesFromDir(params[0], params[1], params[2], 
+													 tracker);
+					return null;
+					
+				case UNZIP_SELECTED_TYPE:
+					String[] entries = new String[params.length - 2];
+					
+					System.arraycopy(params, 2, entries, 0, entries.length);
+					unzip_failed = mFileMang.extractZipEntries(params[0], entries, params[1], 
+															   tracker);
 					return null;
 					
 				case ZIP_TYPE:
-					mFileMang.createZipFile(params[0]);
+					mFileMang.createZipFile(params[0], tracker);
+					return null;
+					
+				case UPDATE_ZIP_TYPE:
+					mFileMang.updateZipFile(params[0], tracker);
 					return null;
 					
 				case DELETE_TYPE:
-					int size = params.length;
+					mFileMang.deleteTarget(params, tracker);
+					return null;
+					
+				case VIEW_ENTRY_TYPE:
+					file_name = params[0];
+					opened = mFileMang.openArchiveEntry(file_name, tracker);
+					return null;
 					
-					for(int i = 0; i < size; i++)
-						mFileMang.deleteTarget(params[i]);
+				case TAR_TYPE:
+					mFileMang.createTarFile(params[0], true, tracker);
+					return null;
 					
+				case UNTAR_TYPE:
+					mFileMang.extractTarFile(params[0], params[1], tracker);
+					return null;
+					
+				case TEST_TYPE:
+					file_name = params[0].substring(params[0].lastIndexOf("/") + 1);
+					copy_rtn = mFileMang.testZipFile(params[0], tracker);
 					return null;
 			}
 			return null;
@@ -954,11 +1264,19 @@ public class EventHandler implements OnClickListener {
 						mMultiSelectData.clear();
 					}
 					
-					if(copy_rtn == 0)
+					if(copy_rtn.isCanceled())
+						Toast.makeText(mContext, "Copy canceled", Toast.LENGTH_SHORT).show();
+					else if(copy_rtn.isSuccessful())
 						Toast.makeText(mContext, "File successfully copied and pasted", 
 											Toast.LENGTH_SHORT).show();
+					else if(moving)
+						Toast.makeText(mContext, "Move failed, " + (copy_rtn.getFailures().size() + 
+											copy_rtn.getMismatches().size()) + " item(s) were not moved. " +
+											"Nothing already in the folder is replaced", 
+											Toast.LENGTH_LONG).show();
 					else
-						Toast.makeText(mContext, "Copy pasted failed", Toast.LENGTH_SHORT).show();
+						Toast.makeText(mContext, "Copy pasted failed, " + copy_rtn.getFailures().size() +
+											" item(s) could not be copied", Toast.LENGTH_SHORT).show();
 					
 					pr_dialog.dismiss();
 					mInfoLabel.setText("");
@@ -967,16 +1285,30 @@ public class EventHandler implements OnClickListener {
 				case UNZIP_TYPE:
 					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
 					pr_dialog.dismiss();
+					show_canceled();
 					break;
 					
 				case UNZIPTO_TYPE:
 					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
 					pr_dialog.dismiss();
+					show_canceled();
+					break;
+					
+				case UNZIP_SELECTED_TYPE:
+					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
+					pr_dialog.dismiss();
+					
+					if(unzip_failed > 0 && !tracker.isCanceled())
+						Toast.makeText(mContext, unzip_failed + " file(s) could not be extracted", 
+											Toast.LENGTH_SHORT).show();
+					show_canceled();
 					break;
 					
 				case ZIP_TYPE:
+				case UPDATE_ZIP_TYPE:
 					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
 					pr_dialog.dismiss();
+					show_canceled();
 					break;
 					
 				case DELETE_TYPE:
@@ -988,8 +1320,79 @@ public class EventHandler implements OnClickListener {
 					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
 					pr_dialog.dismiss();
 					mInfoLabel.setText("");
+					show_canceled();
+					break;
+					
+				case TAR_TYPE:
+				case UNTAR_TYPE:
+					updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
+					pr_dialog.dismiss();
+					show_canceled();
+					break;
+					
+				case TEST_TYPE:
+					pr_dialog.dismiss();
+					
+					if(copy_rtn == null) {
+						Toast.makeText(mContext, "Couldn't read " + file_name, 
+											Toast.LENGTH_SHORT).show();
+						break;
+					}
+					
+					if(copy_rtn.isCanceled()) {
+						show_canceled();
+						break;
+					}
+					
+					ArrayList<String> bad = new ArrayList<String>(copy_rtn.getMismatches());
+					
+					for(String failed : copy_rtn.getFailures())
+						bad.add(failed + " (can't be tested)");
+					
+					if(bad.isEmpty()) {
+						Toast.makeText(mContext, "All " + copy_rtn.getVerifiedCount() + 
+											" file(s) in " + file_name + " are intact", 
+											Toast.LENGTH_SHORT).show();
+						break;
+					}
+					
+					AlertDialog.Builder test_builder = new AlertDialog.Builder(mContext);
+					test_builder.setTitle(copy_rtn.getMismatches().size() + 
+										  " damaged file(s) in " + file_name);
+					test_builder.setItems(bad.toArray(new CharSequence[bad.size()]), null);
+					test_builder.create().show();
+					break;
+					
+				case VIEW_ENTRY_TYPE:
+					pr_dialog.dismiss();
+					
+					if(opened == null) {
+						if(!tracker.isCanceled())
+							Toast.makeText(mContext, "Couldn't extract " + file_name, 
+												Toast.LENGTH_SHORT).show();
+						show_canceled();
+						break;
+					}
+					
+					String ext = opened.getName().substring(opened.getName().lastIndexOf(".") + 1);
+					String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext.toLowerCase());
+					Intent intent = new Intent();
+					
+					intent.setAction(Intent.ACTION_VIEW);
+					intent.setDataAndType(Uri.fromFile(opened), mime != null ? mime : "*/*");
+					try {
+						mContext.startActivity(intent);
+					} catch (ActivityNotFoundException e) {
+						Toast.makeText(mContext, "Sorry, couldn't find anything to open " + 
+											file_name, Toast.LENGTH_SHORT).show();
+					}
 					break;
 			}
 		}
+    	
+    	private void show_canceled() {
+    		if(tracker.isCanceled())
+    			Toast.makeText(mContext, "Operation canceled", Toast.LENGTH_SHORT).show();
+    	}
     }
 }
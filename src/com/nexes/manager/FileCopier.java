@@ -0,0 +1,273 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * This class copies the contents of one file into another using
+ * FileChannels. The data is first handed to FileChannel.transferTo so the
+ * kernel can move it without it ever being copied into the java heap. If
+ * the platform can not (or will not) transfer the whole file this way,
+ * the rest of the file is copied through a large direct ByteBuffer.
+ * <br>
+ * <br>
+ * When a Checksum is given the data has to pass through the java heap
+ * anyway, so transferTo is skipped and the checksum is updated from the
+ * same buffer the data is written from. The source is only read once.
+ * <br>
+ * <br>
+ * Files are opened, preallocated, written and synced as the WritePolicy
+ * says. Both transferTo and the buffers move at most the policy's write
+ * size at a time, and every write ends on a multiple of it.
+ * <br>
+ * <br>
+ * Like the FileManager class this class has no reference to any GUI
+ * activity. An object of this class reuses its buffer between copies so
+ * it should not be shared between threads, create one per thread instead.
+ *
+ * @author Joe Berria
+ */
+public class FileCopier {
+	private final WritePolicy mPolicy;
+	private ByteBuffer mBuffer;
+	private ByteBuffer mHeapBuffer;
+
+	public FileCopier() {
+		this(new WritePolicy());
+	}
+
+	/**
+	 * @param policy	how the files this copier creates are written
+	 */
+	public FileCopier(WritePolicy policy) {
+		mPolicy = policy;
+	}
+
+	/**
+	 * Copies the file src to the file dest. If dest exists it will
+	 * be overwritten.
+	 *
+	 * @param src	the file to copy
+	 * @param dest	the file to create
+	 * @return		the number of bytes written to dest
+	 * @throws IOException
+	 */
+	public long copy(File src, File dest) throws IOException {
+		return copy(src, dest, null);
+	}
+
+	/**
+	 * Copies the file src to the file dest. If dest exists it will
+	 * be overwritten. If the copy fails or is canceled through progress
+	 * the partly written dest is deleted.
+	 *
+	 * @param src		the file to copy
+	 * @param dest		the file to create
+	 * @param progress	counts the bytes as they are copied, may be null
+	 * @return			the number of bytes written to dest
+	 * @throws IOException
+	 */
+	public long copy(File src, File dest, ProgressTracker progress) throws IOException {
+		return copy(src, dest, progress, null);
+	}
+
+	/**
+	 * Copies the file src to the file dest and updates checksum with every
+	 * byte read from src. If dest exists it will be overwritten. If the copy
+	 * fails or is canceled through progress the partly written dest is deleted.
+	 *
+	 * @param src		the file to copy
+	 * @param dest		the file to create
+	 * @param progress	counts the bytes as they are copied, may be null
+	 * @param checksum	is updated with the contents of src, may be null
+	 * @return			the number of bytes written to dest
+	 * @throws IOException
+	 */
+	public long copy(File src, File dest, ProgressTracker progress, Checksum checksum) 
+																throws IOException {
+		FileInputStream in = new FileInputStream(src);
+		RandomAccessFile out = null;
+		long length;
+
+		try {
+			out = mPolicy.open(dest, in.getChannel().size());
+
+			if(checksum != null)
+				length = copy_checked(in.getChannel(), out.getChannel(), progress, checksum);
+			else
+				length = copy(in.getChannel(), out.getChannel(), progress);
+
+			RandomAccessFile done = out;
+			out = null;
+			mPolicy.close(done, dest, length);
+
+			return length;
+
+		} catch (IOException e) {
+			if(out != null) {
+				out.close();
+				out = null;
+				dest.delete();
+			}
+			throw e;
+
+		} finally {
+			in.close();
+			if(out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Copies everything from the current position of in to the end of
+	 * in into out.
+	 *
+	 * @param in	the channel to read from
+	 * @param out	the channel to write to
+	 * @return		the number of bytes written
+	 * @throws IOException
+	 */
+	public long copy(FileChannel in, FileChannel out) throws IOException {
+		return copy(in, out, null);
+	}
+
+	/**
+	 * Copies everything from the current position of in to the end of
+	 * in into out.
+	 *
+	 * @param in		the channel to read from
+	 * @param out		the channel to write to
+	 * @param progress	counts the bytes as they are copied, may be null
+	 * @return			the number of bytes written
+	 * @throws IOException
+	 */
+	public long copy(FileChannel in, FileChannel out, ProgressTracker progress) throws IOException {
+		long start = in.position();
+		long out_start = out.position();
+		long size = in.size();
+		long pos = start;
+		long write = mPolicy.getWriteSize();
+		long count;
+
+		/* transferTo may move less than asked for, or nothing at all if
+		 * the platform doesn't support it. Whatever it leaves is picked
+		 * up by the buffer loop below */
+		try {
+			while(pos < size) {
+				count = write - (out_start + pos - start) % write;
+				count = in.transferTo(pos, Math.min(count, size - pos), out);
+
+				if(count <= 0)
+					break;
+
+				pos += count;
+				if(progress != null) {
+					progress.addBytes(count);
+					progress.checkCanceled();
+				}
+			}
+		} catch (InterruptedIOException e) {
+			throw e;
+
+		} catch (IOException e) {
+			out.position(out_start);
+			if(progress != null)
+				progress.addBytes(start - pos);
+			pos = start;
+		}
+
+		in.position(pos);
+		return (pos - start) + copy_buffered(in, out, progress);
+	}
+
+	/*
+	 * Copies whatever is left in the in channel through our direct buffer
+	 */
+	private long copy_buffered(FileChannel in, FileChannel out, ProgressTracker progress) 
+																throws IOException {
+		int write = mPolicy.getWriteSize();
+
+		if(mBuffer == null || mBuffer.capacity() != write)
+			mBuffer = ByteBuffer.allocateDirect(write);
+
+		return copy_through(mBuffer, in, out, progress, null);
+	}
+
+	/*
+	 * Same as copy_buffered but through a heap buffer, so the checksum can
+	 * read the bytes on their way past
+	 */
+	private long copy_checked(FileChannel in, FileChannel out, ProgressTracker progress,
+							  Checksum checksum) throws IOException {
+		int write = mPolicy.getWriteSize();
+
+		if(mHeapBuffer == null || mHeapBuffer.capacity() != write)
+			mHeapBuffer = ByteBuffer.allocate(write);
+
+		return copy_through(mHeapBuffer, in, out, progress, checksum);
+	}
+
+	/*
+	 * Fills buffer up to the next multiple of its size in out before
+	 * each write. checksum may be null, if not buffer must be a heap buffer.
+	 */
+	private long copy_through(ByteBuffer buffer, FileChannel in, FileChannel out, 
+							  ProgressTracker progress, Checksum checksum) throws IOException {
+		int write = buffer.capacity();
+		long total = 0;
+		boolean eof = false;
+		int written;
+
+		while(!eof) {
+			buffer.clear();
+			buffer.limit(write - (int)(out.position() % write));
+
+			while(buffer.hasRemaining())
+				if(in.read(buffer) == -1) {
+					eof = true;
+					break;
+				}
+
+			buffer.flip();
+			if(checksum != null)
+				checksum.update(buffer.array(), 0, buffer.limit());
+
+			while(buffer.hasRemaining()) {
+				written = out.write(buffer);
+				total += written;
+
+				if(progress != null)
+					progress.addBytes(written);
+			}
+
+			if(progress != null)
+				progress.checkCanceled();
+		}
+
+		return total;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.io.File;
+
+/**
+ * What a listing knows about one file or folder. Everything is read from
+ * the file system once, when the folder is listed, so sorting the list 
+ * and drawing its rows don't have to ask again. The values are not 
+ * updated, list the folder again to see changes.
+ * <br>
+ * <br>
+ * Java has no call that reads all of a file's attributes at once, so 
+ * this still takes a few calls per file, but only once per listing 
+ * instead of once per comparison or row drawn.
+ *
+ * @author Joe Berria
+ */
+public final class FileEntry {
+	private final String mName;
+	private final boolean mDirectory;
+	private final boolean mFile;
+	private final long mLength;
+	private final long mModified;
+	private final boolean mHidden;
+	private final boolean mReadable;
+	private final boolean mWritable;
+	
+	/**
+	 * Reads the attributes of file. file may be an ArchiveFile.
+	 * 
+	 * @param file	the file or folder
+	 */
+	public FileEntry(File file) {
+		mName = file.getName();
+		mDirectory = file.isDirectory();
+		mFile = !mDirectory && file.isFile();
+		mLength = mFile ? file.length() : 0;
+		mModified = file.lastModified();
+		mHidden = mName.startsWith(".");
+		mReadable = file.canRead();
+		mWritable = file.canWrite();
+	}
+	
+	public String getName() {
+		return mName;
+	}
+	
+	public boolean isDirectory() {
+		return mDirectory;
+	}
+	
+	/**
+	 * @return	true if this is a normal file, neither of isFile or 
+	 * 			isDirectory is true for something that no longer exists
+	 */
+	public boolean isFile() {
+		return mFile;
+	}
+	
+	/**
+	 * @return the size of a file in bytes, 0 for a folder
+	 */
+	public long length() {
+		return mLength;
+	}
+	
+	public long lastModified() {
+		return mModified;
+	}
+	
+	public boolean isHidden() {
+		return mHidden;
+	}
+	
+	public boolean canRead() {
+		return mReadable;
+	}
+	
+	public boolean canWrite() {
+		return mWritable;
+	}
+	
+	/**
+	 * @return	the name's extension in lower case without the dot, or 
+	 * 			an empty string if it has none
+	 */
+	public String getExtension() {
+		int dot = mName.lastIndexOf(".");
+		
+		return dot < 0 ? "" : mName.substring(dot + 1).toLowerCase();
+	}
+}
@@ -20,18 +20,25 @@ package com.nexes.manager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Stack;
-import java.io.File;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
 
 import android.util.Log;
 
@@ -51,17 +58,69 @@ import android.util.Log;
  *
  */
 public class FileManager {
-	private static final int BUFFER = 		2048;
-	private static final int SORT_NONE = 	0;
-	private static final int SORT_ALPHA = 	1;
-	private static final int SORT_TYPE = 	2;
-	private static final int SORT_SIZE = 	3;
+	/**
+	 * copyTree copies the files of a tree on a pool of threads
+	 */
+	public static final int COPY_PARALLEL = 	0;
+	/**
+	 * copyTree reads files ahead on one thread while it writes on another
+	 */
+	public static final int COPY_PIPELINED = 	1;
+	
+	/* the sort types, in the order Settings offers them */
+	static final int SORT_NONE = 	0;
+	static final int SORT_ALPHA = 	1;
+	static final int SORT_TYPE = 	2;
+	static final int SORT_SIZE = 	3;
+	static final int SORT_DATE = 	4;
+	static final int SORT_NATURAL = 5;
+	private static final int COPY_THREADS = 4;
+	private static final int READ_BUFFER = 	64 * 1024;
+	/* what check_move found */
+	private static final int MOVE_OK = 		0;
+	private static final int MOVE_IN_PLACE = 1;
+	private static final int MOVE_REFUSED = 2;
+	/* archives whose index is kept while browsing */
+	private static final int ARCHIVE_CACHE = 4;
+	/* folder listings kept for going back, and the most files they may hold */
+	private static final int LISTING_CACHE = 	16;
+	private static final int LISTING_FILES = 	20000;
+	/* folders with more files than this are read a page at a time */
+	private static final int PAGED_LISTING = 	2000;
+	private static final int FIRST_PAGE = 		64;
 	
 	private boolean mShowHiddenFiles = false;
 	private int mSortType = SORT_ALPHA;
+	private int mCopyThreads = COPY_THREADS;
+	private int mCopyMode = COPY_PIPELINED;
 	private long mDirSize = 0;
 	private Stack<String> mPathStack;
 	private ArrayList<String> mDirContent;
+	/* what populate_list read about each name in mDirContent */
+	private HashMap<String, FileEntry> mEntries = new HashMap<String, FileEntry>();
+	private final ListingCache mListings = new ListingCache(LISTING_CACHE, LISTING_FILES);
+	/* still reading the current folder, null once it is all listed */
+	private ListingPager mPager;
+	private WritePolicy mWritePolicy;
+	private FileCopier mCopier;
+	private File mTempDir;
+	/* set by populate_list when the current directory is inside an archive */
+	private ZipIndex mIndex;
+	private String mIndexDir;
+	private final LinkedHashMap<String, ZipIndex> mArchives = 
+		new LinkedHashMap<String, ZipIndex>(ARCHIVE_CACHE * 2, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ZipIndex> eldest) {
+			if(size() <= ARCHIVE_CACHE)
+				return false;
+			
+			eldest.getValue().close();
+			delete_extracted(eldest.getKey());
+			return true;
+		}
+	};
 	
 	/**
 	 * Constructs an object of the class
@@ -71,11 +130,78 @@ public class FileManager {
 	public FileManager() {
 		mDirContent = new ArrayList<String>();
 		mPathStack = new Stack<String>();
+		mWritePolicy = new WritePolicy();
+		mCopier = new FileCopier(mWritePolicy);
 		
 		mPathStack.push("/");
 		mPathStack.push(mPathStack.peek() + "sdcard");
 	}
 	
+	/**
+	 * The sorted listings of folders already shown. Changes to the file
+	 * system are found by the cache itself, clear it to list everything 
+	 * again anyway.
+	 * 
+	 * @return the listing cache, with its hit and miss counts
+	 */
+	public ListingCache getListingCache() {
+		return mListings;
+	}
+	
+	/**
+	 * A folder of more than a few thousand files is listed a page at a
+	 * time. The list returned by getNextDir, getPreviousDir or setHomeDir
+	 * then holds only its first files, unsorted, and this returns the 
+	 * pager to read the rest with, off the UI thread. Each page is given 
+	 * to addPage and the sorted names to finishPager.
+	 * 
+	 * @return	the pager of the current folder, or null if it is all listed
+	 */
+	public ListingPager getPager() {
+		return mPager;
+	}
+	
+	/**
+	 * Adds a page read by pager to the current listing.
+	 * 
+	 * @param pager	the pager from getPager
+	 * @param page	the entries it read
+	 * @return		false if another folder is listed by now
+	 */
+	public boolean addPage(ListingPager pager, ArrayList<FileEntry> page) {
+		if(pager != mPager)
+			return false;
+		
+		for (FileEntry entry : page) {
+			mEntries.put(entry.getName(), entry);
+			mDirContent.add(entry.getName());
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Replaces the current listing with the sorted one once pager is done,
+	 * and keeps it in the listing cache.
+	 * 
+	 * @param pager	the pager from getPager
+	 * @param names	what its sort returned
+	 * @return		the current listing, or null if another folder is listed by now
+	 */
+	public ArrayList<String> finishPager(ListingPager pager, ArrayList<String> names) {
+		if(pager != mPager)
+			return null;
+		
+		mPager = null;
+		mDirContent.clear();
+		mDirContent.addAll(names);
+		mListings.put(pager.getSortType(), pager.showsHidden(), 
+				new ListingCache.Listing(pager.getPath(), pager.getModified(), pager.getListed(),
+						names, mEntries));
+		
+		return mDirContent;
+	}
+	
 	/**
 	 * This will return a string of the current directory path
 	 * @return the current directory
@@ -131,6 +257,9 @@ public class FileManager {
 	}
 	
 	/**
+	 * A zip file can be given as a directory, its contents are then listed
+	 * from its central directory without extracting anything, and the 
+	 * folders inside it can be gone into the same way.
 	 * 
 	 * @param path
 	 * @param isFullPath
@@ -160,34 +289,110 @@ public class FileManager {
 	 * @return
 	 */
 	public int copyToDirectory(String old, String newDir) {
+		int rtn = copy_to_directory(old, newDir, null, null);
+		
+		mWritePolicy.finishBatch();
+		return rtn;
+	}
+	
+	/**
+	 * Same as copyToDirectory(String, String), with verify every file's 
+	 * source is checksummed while it is read and its copy is read back 
+	 * and compared on another thread, while the next file copies.
+	 * 
+	 * @param old		the file or folder to be copied
+	 * @param newDir	the directory to copy it into
+	 * @param verify	true to check every copy against its source
+	 * @return			what was copied, what failed and what didn't match
+	 */
+	public CopyResult copyToDirectory(String old, String newDir, boolean verify) {
+		CopyResult result = new CopyResult();
+		CopyVerifier verifier = verify ? new CopyVerifier(result) : null;
+		
+		copy_to_directory(old, newDir, result, verifier);
+		mWritePolicy.finishBatch();
+		
+		if(verifier != null)
+			verifier.finish();
+		
+		return result;
+	}
+	
+	/**
+	 * Brings the copy of old in newDir up to date, copying only files that
+	 * are new or have changed size or modification time since the last sync.
+	 * 
+	 * @param old		the file or folder to sync from
+	 * @param newDir	the directory holding the copy
+	 * @param checksum	also compare the contents of files that look unchanged
+	 * @param delete	remove files from the copy that are no longer in old
+	 * @return			what was copied, skipped and deleted
+	 */
+	public CopyResult syncToDirectory(String old, String newDir, boolean checksum, 
+									  boolean delete) {
+		return syncToDirectory(old, newDir, checksum, delete, null);
+	}
+	
+	/**
+	 * 
+	 * @param old		the file or folder to sync from
+	 * @param newDir	the directory holding the copy
+	 * @param checksum	also compare the contents of files that look unchanged
+	 * @param delete	remove files from the copy that are no longer in old
+	 * @param progress	counts only the files that are copied, may be null
+	 * @return			what was copied, skipped and deleted
+	 */
+	public CopyResult syncToDirectory(String old, String newDir, boolean checksum,
+									  boolean delete, ProgressTracker progress) {
+		File old_file = new File(old);
+		File temp_dir = new File(newDir);
+		
+		if(!old_file.exists() || !temp_dir.isDirectory() || !temp_dir.canWrite()) {
+			CopyResult result = new CopyResult();
+			result.addFailure(old);
+			return result;
+		}
+		
+		CopyResult result = new TreeSync(checksum, delete, mWritePolicy, progress).sync(old_file, temp_dir);
+		
+		mWritePolicy.finishBatch();
+		if(progress != null)
+			progress.finish();
+		
+		return result;
+	}
+	
+	/*
+	 * result and verifier may be null
+	 */
+	private int copy_to_directory(String old, String newDir, CopyResult result, 
+								  CopyVerifier verifier) {
 		File old_file = new File(old);
 		File temp_dir = new File(newDir);
-		byte[] data = new byte[BUFFER];
-		int read = 0;
 		
 		if(old_file.isFile() && temp_dir.isDirectory() && temp_dir.canWrite()){
 			String file_name = old.substring(old.lastIndexOf("/"), old.length());
 			File cp_file = new File(newDir + file_name);
+			CRC32 crc = verifier != null ? new CRC32() : null;
 
 			try {
-				BufferedOutputStream o_stream = new BufferedOutputStream(
-												new FileOutputStream(cp_file));
-				BufferedInputStream i_stream = new BufferedInputStream(
-											   new FileInputStream(old_file));
+				long bytes = mCopier.copy(old_file, cp_file, null, crc);
 				
-				while((read = i_stream.read(data, 0, BUFFER)) != -1)
-					o_stream.write(data, 0, read);
-				
-				o_stream.flush();
-				i_stream.close();
-				o_stream.close();
+				if(result != null)
+					result.addFile(bytes);
+				if(verifier != null)
+					verifier.verify(cp_file, crc.getValue());
 				
 			} catch (FileNotFoundException e) {
 				Log.e("FileNotFoundException", e.getMessage());
+				if(result != null)
+					result.addFailure(old);
 				return -1;
 				
 			} catch (IOException e) {
 				Log.e("IOException", e.getMessage());
+				if(result != null)
+					result.addFailure(old);
 				return -1;
 			}
 			
@@ -196,18 +401,221 @@ public class FileManager {
 			String dir = newDir + old.substring(old.lastIndexOf("/"), old.length());
 			int len = files.length;
 			
-			if(!new File(dir).mkdir())
+			int rtn = 0;
+			
+			if(!new File(dir).mkdir()) {
+				if(result != null)
+					result.addFailure(old);
 				return -1;
+			}
+			
+			if(result != null)
+				result.addDir();
 			
 			for(int i = 0; i < len; i++)
-				copyToDirectory(old + "/" + files[i], dir);
+				if(copy_to_directory(old + "/" + files[i], dir, result, verifier) != 0)
+					rtn = -1;
 			
-		} else if(!temp_dir.canWrite())
+			return rtn;
+			
+		} else if(!temp_dir.canWrite()) {
+			if(result != null)
+				result.addFailure(old);
 			return -1;
+		}
 		
 		return 0;
 	}
 	
+	/**
+	 * Copies a file or a whole directory tree into newDir. How the files of
+	 * a tree are copied is decided by setCopyMode, and the result accounts
+	 * for every file in the tree, including the ones that failed.
+	 * 
+	 * @param old		the file or folder to be copied
+	 * @param newDir	the directory to copy it into
+	 * @return			the result of the whole copy
+	 */
+	public CopyResult copyTree(String old, String newDir) {
+		return copyTree(new String[] {old}, newDir, null);
+	}
+	
+	/**
+	 * Copies several files or directory trees into newDir.
+	 * 
+	 * @param targets	the files or folders to be copied
+	 * @param newDir	the directory to copy them into
+	 * @param progress	is told about every byte and file copied, may be null
+	 * @return			the combined result of every copy
+	 */
+	public CopyResult copyTree(String[] targets, String newDir, ProgressTracker progress) {
+		CopyResult result = new CopyResult();
+		File temp_dir = new File(newDir);
+		
+		if(progress != null)
+			for(int i = 0; i < targets.length; i++)
+				progress.addTotal(new File(targets[i]));
+		
+		for(int i = 0; i < targets.length; i++) {
+			if(progress != null && progress.isCanceled()) {
+				result.setCanceled();
+				break;
+			}
+			result.add(copy_tree(new File(targets[i]), temp_dir, progress));
+		}
+		
+		mWritePolicy.finishBatch();
+		if(progress != null)
+			progress.finish();
+		
+		return result;
+	}
+	
+	/**
+	 * Moves a file or folder into newDir. When both are on the same file system
+	 * this is a single rename no matter how large the target is. Otherwise the
+	 * target is copied, taking every file's checksum as it is read, every 
+	 * copy is read back and compared to that checksum, and only then is the
+	 * original deleted. An original that can't be deleted is listed as a 
+	 * failure.
+	 * <br>
+	 * <br>
+	 * A target already in newDir is left where it is. A folder can't be 
+	 * moved into itself or one of its own folders, and nothing already in 
+	 * newDir is replaced, those targets are listed as failures.
+	 * 
+	 * @param old		the file or folder to move
+	 * @param newDir	the directory to move it into
+	 * @return			the result of the move, the byte count is 0 for a rename
+	 */
+	public CopyResult moveTarget(String old, String newDir) {
+		return moveTarget(new String[] {old}, newDir, null);
+	}
+	
+	/**
+	 * Moves several files or folders into newDir, see moveTarget(String, String).
+	 * 
+	 * @param targets	the files or folders to move
+	 * @param newDir	the directory to move them into
+	 * @param progress	is told about every byte and file moved, may be null
+	 * @return			the combined result of every move
+	 */
+	public CopyResult moveTarget(String[] targets, String newDir, ProgressTracker progress) {
+		CopyResult result = new CopyResult();
+		ArrayList<File> to_copy = new ArrayList<File>();
+		File temp_dir = new File(newDir);
+		
+		if(!temp_dir.isDirectory() || !temp_dir.canWrite()) {
+			for(int i = 0; i < targets.length; i++)
+				result.addFailure(targets[i]);
+			
+			return result;
+		}
+		
+		/* renameTo fails when the two paths are on different volumes, 
+		 * whatever can't be renamed is copied */
+		for(int i = 0; i < targets.length; i++) {
+			File old_file = new File(targets[i]);
+			File dest = new File(temp_dir, old_file.getName());
+			
+			if(progress != null && progress.isCanceled()) {
+				result.setCanceled();
+				return result;
+			}
+			
+			int check = check_move(old_file, temp_dir);
+			
+			if(check == MOVE_IN_PLACE) {
+				result.addSkipped();
+				
+			} else if(check == MOVE_REFUSED || dest.exists()) {
+				result.addFailure(targets[i]);
+				
+			} else if(old_file.renameTo(dest)) {
+				if(dest.isDirectory())
+					result.addDir();
+				else
+					result.addFile(0);
+				
+				if(progress != null) {
+					progress.addTotal(0, 1);
+					progress.addFile();
+				}
+			} else {
+				to_copy.add(old_file);
+				
+				if(progress != null)
+					progress.addTotal(old_file);
+			}
+		}
+		
+		for(File old_file : to_copy) {
+			File dest = new File(temp_dir, old_file.getName());
+			
+			if(progress != null && progress.isCanceled()) {
+				result.setCanceled();
+				break;
+			}
+			
+			/* another target of the same name may have been moved here */
+			if(dest.exists()) {
+				result.addFailure(old_file.getPath());
+				continue;
+			}
+			
+			/* the source is read once, the copies are read back on 
+			 * another thread while the next files are copied */
+			CopyResult checks = new CopyResult();
+			CopyVerifier verifier = new CopyVerifier(checks);
+			CopyResult copied = copy_tree(old_file, temp_dir, progress, verifier);
+			
+			/* the copy is on the card before the original goes */
+			mWritePolicy.finishBatch();
+			copied.add(verifier.finish());
+			result.add(copied);
+			
+			/* mismatched copies are listed by result, the original stays */
+			if(!copied.isSuccessful() || delete_target(old_file, null) != 0)
+				result.addFailure(old_file.getPath());
+		}
+		
+		if(progress != null)
+			progress.finish();
+		
+		return result;
+	}
+	
+	/**
+	 * The policy every copy, move, sync and extract writes files with, 
+	 * change its settings to tune writing to removable storage.
+	 * 
+	 * @return	the write policy of this FileManager
+	 */
+	public WritePolicy getWritePolicy() {
+		return mWritePolicy;
+	}
+	
+	/**
+	 * Sets how copyTree copies directories. COPY_PIPELINED, the default,
+	 * suits trees of many small files. COPY_PARALLEL copies several files
+	 * at once, see setCopyThreads.
+	 * 
+	 * @param mode	COPY_PIPELINED or COPY_PARALLEL
+	 */
+	public void setCopyMode(int mode) {
+		mCopyMode = mode;
+	}
+	
+	/**
+	 * Sets how many files copyTree will copy at the same time when
+	 * using COPY_PARALLEL.
+	 * 
+	 * @param threads	the number of copy threads, at least 1
+	 */
+	public void setCopyThreads(int threads) {
+		mCopyThreads = Math.max(1, threads);
+	}
+	
 	/**
 	 * 
 	 * @param zipName
@@ -215,6 +623,18 @@ public class FileManager {
 	 * @param fromDir
 	 */
 	public void extractZipFilesFromDir(String zipName, String toDir, String fromDir) {
+		extractZipFilesFromDir(zipName, toDir, fromDir, null);
+	}
+	
+	/**
+	 * 
+	 * @param zipName
+	 * @param toDir
+	 * @param fromDir
+	 * @param progress	is told about every byte and file extracted, may be null
+	 */
+	public void extractZipFilesFromDir(String zipName, String toDir, String fromDir, 
+									   ProgressTracker progress) {
 		if(!(toDir.charAt(toDir.length() - 1) == '/'))
 			toDir += "/";
 		if(!(fromDir.charAt(fromDir.length() - 1) == '/'))
@@ -222,7 +642,7 @@ public class FileManager {
 		
 		String org_path = fromDir + zipName;		
 		
-		extractZipFiles(org_path, toDir);
+		extractZipFiles(org_path, toDir, progress);
 	}
 	
 	/**
@@ -231,10 +651,17 @@ public class FileManager {
 	 * @param directory
 	 */
 	public void extractZipFiles(String zip_file, String directory) {
-		byte[] data = new byte[BUFFER];
+		extractZipFiles(zip_file, directory, null);
+	}
+	
+	/**
+	 * 
+	 * @param zip_file
+	 * @param directory
+	 * @param progress	is told about every byte and file extracted, may be null
+	 */
+	public void extractZipFiles(String zip_file, String directory, ProgressTracker progress) {
 		String name, path, zipDir;
-		ZipEntry entry;
-		ZipInputStream zipstream;
 		
 		if(!(directory.charAt(directory.length() - 1) == '/'))
 			directory += "/";
@@ -252,172 +679,684 @@ public class FileManager {
 			zipDir = directory + name + "/";
 		}
 
-		new File(zipDir).mkdir();
+		boolean created = new File(zipDir).mkdir();
 		
 		try {
-			zipstream = new ZipInputStream(new FileInputStream(path));
+			CopyResult result = new ZipExtractor(mWritePolicy, mCopyThreads, progress).
+											extract(new File(path), new File(zipDir));
 			
-			while((entry = zipstream.getNextEntry()) != null) {
-				String buildDir = zipDir;
-				String[] dirs = entry.getName().split("/");
-				
-				if(dirs != null && dirs.length > 0) {
-					for(int i = 0; i < dirs.length - 1; i++) {
-						buildDir += dirs[i] + "/";
-						new File(buildDir).mkdir();
-					}
-				}
-				
-				int read = 0;
-				FileOutputStream out = new FileOutputStream(
-										zipDir + entry.getName());
-				while((read = zipstream.read(data, 0, BUFFER)) != -1)
-					out.write(data, 0, read);
-				
-				zipstream.closeEntry();
-				out.close();
+			if(result.isCanceled()) {
+				/* throw away everything if we made the folder */
+				if(created)
+					deleteTree(new File(zipDir));
+				return;
 			}
-
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			
+			for(String failed : result.getFailures())
+				Log.e("IOException", "Couldn't extract " + failed);
+			
+			mWritePolicy.finishBatch();
+			if(progress != null)
+				progress.finish();
 			
 		} catch (IOException e) {
-			e.printStackTrace();
+			Log.e("IOException", e.getMessage());
 		}
 	}
 	
 	/**
+	 * Tests a zip file without extracting it. Every entry is inflated on
+	 * a thread per processor and its checksum checked, nothing is written.
 	 * 
-	 * @param path
+	 * @param zip_file	the path of the zip file
+	 * @param progress	is told about every byte and file tested, may be null
+	 * @return			the intact entries as verified, the damaged ones as 
+	 * 					mismatches and the ones that couldn't be tested as 
+	 * 					failures, or null if zip_file isn't a zip file
 	 */
-	public void createZipFile(String path) {
-		File dir = new File(path);
-		String[] list = dir.list();
-		String name = path.substring(path.lastIndexOf("/"), path.length());
-		String _path;
-		
-		if(!dir.canRead() || !dir.canWrite())
-			return;
-		
-		int len = list.length;
-		
-		if(path.charAt(path.length() -1) != '/')
-			_path = path + "/";
-		else
-			_path = path;
-		
+	public CopyResult testZipFile(String zip_file, ProgressTracker progress) {
 		try {
-			ZipOutputStream zip_out = new ZipOutputStream(
-									  new BufferedOutputStream(
-									  new FileOutputStream(_path + name + ".zip"), BUFFER));
+			CopyResult result = new ZipExtractor(mWritePolicy, 
+									Runtime.getRuntime().availableProcessors(), progress).
+									test(new File(zip_file));
 			
-			for (int i = 0; i < len; i++)
-				zip_folder(new File(_path + list[i]), zip_out);
-
-			zip_out.close();
+			for(String damaged : result.getMismatches())
+				Log.e("ZipException", "Damaged entry " + damaged);
+			
+			if(progress != null && !result.isCanceled())
+				progress.finish();
+			
+			return result;
 			
-		} catch (FileNotFoundException e) {
-			Log.e("File not found", e.getMessage());
-
 		} catch (IOException e) {
 			Log.e("IOException", e.getMessage());
+			return null;
 		}
 	}
 	
 	/**
+	 * Reads the central directory of a zip file without inflating anything.
 	 * 
-	 * @param filePath
-	 * @param newName
-	 * @return
+	 * @param zip_file	the path of the zip file
+	 * @return			the name of every file in the archive, in archive order,
+	 * 					or an empty list if it couldn't be read
 	 */
-	public int renameTarget(String filePath, String newName) {
-		File src = new File(filePath);
-		String ext = "";
-		File dest;
-		
-		if(src.isFile())
-			/*get file extension*/
-			ext = filePath.substring(filePath.lastIndexOf("."), filePath.length());
+	public ArrayList<String> listZipEntries(String zip_file) {
+		ArrayList<String> names = new ArrayList<String>();
 		
-		if(newName.length() < 1)
-			return -1;
-	
-		String temp = filePath.substring(0, filePath.lastIndexOf("/"));
+		try {
+			RandomAccessFile zip = new RandomAccessFile(zip_file, "r");
+			
+			try {
+				CentralDirectory directory = new CentralDirectory(zip.getChannel());
+				
+				for(int i = 0; i < directory.size(); i++) {
+					String name = directory.getName(i);
+					
+					if(!name.endsWith("/"))
+						names.add(name);
+				}
+			} finally {
+				zip.close();
+			}
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+		}
 		
-		dest = new File(temp + "/" + newName + ext);
-		if(src.renameTo(dest))
-			return 0;
-		else
-			return -1;
+		return names;
 	}
 	
 	/**
+	 * Extracts only the named entries of a zip file. The central directory 
+	 * says where each entry starts, so nothing else in the archive is read. 
+	 * Entries keep the folders they have inside the archive.
 	 * 
-	 * @param path
-	 * @param name
-	 * @return
+	 * @param zip_file	the path of the zip file
+	 * @param entries	the names of the entries to extract, see listZipEntries
+	 * @param directory	the folder to extract them into
+	 * @param progress	is told about every byte and file extracted, may be null
+	 * @return			the number of entries that could not be extracted
 	 */
-	public int createDir(String path, String name) {
-		int len = path.length();
-		
-		if(len < 1 || len < 1)
-			return -1;
-		
-		if(path.charAt(len - 1) != '/')
-			path += "/";
-		
-		if (new File(path+name).mkdir())
-			return 0;
+	public int extractZipEntries(String zip_file, String[] entries, String directory, 
+								 ProgressTracker progress) {
+		HashSet<String> names = new HashSet<String>(Arrays.asList(entries));
 		
-		return -1;
+		try {
+			CopyResult result = new ZipExtractor(mWritePolicy, mCopyThreads, progress).
+									extract(new File(zip_file), new File(directory), names);
+			
+			/* a canceled entry removes the file it was on */
+			if(result.isCanceled())
+				return 0;
+			
+			mWritePolicy.finishBatch();
+			if(progress != null)
+				progress.finish();
+			
+			return names.size() - result.getFileCount();
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			return entries.length;
+		}
 	}
 	
 	/**
-	 * The full path name of the file to delete.
-	 * 
-	 * @param path name
-	 * @return
+	 * @param dir	where archive entries are written when they are opened, 
+	 * 				see openArchiveEntry
 	 */
-	public int deleteTarget(String path) {
-		File target = new File(path);
+	public void setTempDir(File dir) {
+		mTempDir = dir;
 		
-		if(target.exists() && target.isFile() && target.canWrite()) {
-			target.delete();
-			return 0;
+		/* whatever was extracted before has been handed out already, and
+		 * anything left in zip is from a zip that never finished */
+		if(dir != null) {
+			deleteTree(new File(dir, "archive"));
+			deleteTree(new File(dir, "zip"));
 		}
+	}
+	
+	/**
+	 * @return true if the current directory is a zip file or a folder inside one
+	 */
+	public boolean isInArchive() {
+		return mIndex != null;
+	}
+	
+	/**
+	 * @param name	the name of a file or folder in the current directory
+	 * @return		the file, an ArchiveFile if the current directory is 
+	 * 				inside an archive
+	 */
+	public File getFile(String name) {
+		String dir = mPathStack.peek();
 		
-		else if(target.exists() && target.isDirectory() && target.canRead()) {
-			String[] file_list = target.list();
+		if(mIndex != null)
+			return new ArchiveFile(dir + "/" + name, mIndex, ZipIndex.child(mIndexDir, name));
+		
+		return new File(dir + "/" + name);
+	}
+	
+	/**
+	 * @param name	the name of a file or folder in the current directory
+	 * @return		its attributes as they were when the directory was listed, 
+	 * 				or as they are now if it wasn't in the listing
+	 */
+	public FileEntry getEntry(String name) {
+		FileEntry entry = mEntries.get(name);
+		
+		return entry != null ? entry : new FileEntry(getFile(name));
+	}
+	
+	/**
+	 * Same as getFile(name) for any directory, not just the current one.
+	 * 
+	 * @param dir	the directory name is in, may be inside an archive
+	 * @param name	the name of a file or folder in dir
+	 * @return		the file, an ArchiveFile if dir is inside an archive
+	 */
+	public File getFile(String dir, String name) {
+		String[] archive = split_archive(dir);
+		ZipIndex index = archive != null ? get_index(archive[0]) : null;
+		
+		if(index != null)
+			return new ArchiveFile(dir + "/" + name, index, ZipIndex.child(archive[1], name));
+		
+		return new File(dir + "/" + name);
+	}
+	
+	/**
+	 * Inflates a file of the archive being browsed into the temp directory 
+	 * so it can be handed to other applications. A copy extracted earlier 
+	 * is used again as long as the archive hasn't changed.
+	 * 
+	 * @param name		the name of a file in the current directory
+	 * @param progress	is told about every byte extracted, may be null
+	 * @return			the extracted file, or null if it couldn't be extracted
+	 */
+	public File openArchiveEntry(String name, ProgressTracker progress) {
+		File file = getFile(name);
+		
+		if(!(file instanceof ArchiveFile) || mTempDir == null)
+			return null;
+		
+		ZipIndex index = mIndex;
+		String path = ((ArchiveFile)file).getEntryName();
+		CentralDirectory.Entry entry = index.getEntry(path);
+		
+		if(entry == null)
+			return null;
+		
+		String zip = split_archive(mPathStack.peek())[0];
+		File dir = extracted_dir(zip);
+		File dest = new File(dir, path);
+		
+		if(dest.isFile() && dest.length() == entry.getSize() && 
+		   dest.lastModified() >= new File(zip).lastModified())
+			return dest;
+		
+		if(progress != null)
+			progress.addTotal(entry.getSize(), 1);
+		
+		try {
+			if(!extract_entry(index, path, entry.getSize(), dest, dir, new byte[READ_BUFFER], progress))
+				return null;
 			
-			if(file_list != null && file_list.length == 0) {
-				target.delete();
-				return 0;
+		} catch (InterruptedIOException e) {
+			return null;
+		}
+		
+		mWritePolicy.finishBatch();
+		if(progress != null)
+			progress.finish();
+		
+		return dest;
+	}
+	
+	/**
+	 * 
+	 * @param path
+	 */
+	public void createZipFile(String path) {
+		createZipFile(path, null);
+	}
+	
+	/**
+	 * 
+	 * @param path
+	 * @param progress	is told about every byte and file zipped, may be null
+	 */
+	public void createZipFile(String path, ProgressTracker progress) {
+		createZipFile(path, new CompressionPolicy(), progress);
+	}
+	
+	/**
+	 * Zips the folder path into a zip file inside it, replacing that zip 
+	 * file if it is already there. See updateZipFile to bring it up to 
+	 * date instead.
+	 * 
+	 * @param path
+	 * @param policy	which files are deflated and at what level, photos, 
+	 * 					music and the like are normally only stored
+	 * @param progress	is told about every byte and file zipped, may be null
+	 */
+	public void createZipFile(String path, CompressionPolicy policy, ProgressTracker progress) {
+		File dir = new File(path);
+		String[] list = dir.list();
+		String name = path.substring(path.lastIndexOf("/"), path.length());
+		String _path;
+		
+		if(!dir.canRead() || !dir.canWrite())
+			return;
+		
+		int len = list.length;
+		
+		if(path.charAt(path.length() -1) != '/')
+			_path = path + "/";
+		else
+			_path = path;
+		
+		File zip_file = new File(_path + name + ".zip");
+		ZipWriter zip_out = null;
+		
+		if(progress != null)
+			for (int i = 0; i < len; i++)
+				if(!list[i].equals(zip_file.getName()))
+					progress.addTotal(new File(_path + list[i]));
+		
+		try {
+			/* large entries wait in the temp directory, never in the 
+			 * folder being zipped where they would end up zipped too */
+			zip_out = new ZipWriter(mWritePolicy.openStream(zip_file, -1), spill_dir(), 
+									Runtime.getRuntime().availableProcessors(), policy, progress);
+			
+			/* the zip file itself is left out */
+			for (int i = 0; i < len; i++)
+				if(!list[i].equals(zip_file.getName()))
+					zip_folder(new File(_path + list[i]), list[i], zip_out);
+
+			zip_out.close();
+			zip_out = null;
+			mWritePolicy.finishBatch();
+			
+			if(progress != null)
+				progress.finish();
+			
+		} catch (FileNotFoundException e) {
+			Log.e("File not found", e.getMessage());
+
+		} catch (IOException e) {
+			/* a half written zip is no use to anyone, this is 
+			 * also where a cancel ends up */
+			Log.e("IOException", e.getMessage());
+			if(zip_out != null)
+				zip_out.abort();
+			zip_file.delete();
+		}
+	}
+	
+	/**
+	 * @param path
+	 * @param progress	is told about every byte and file zipped, may be null
+	 */
+	public void updateZipFile(String path, ProgressTracker progress) {
+		updateZipFile(path, new CompressionPolicy(), progress);
+	}
+	
+	/**
+	 * Brings the zip file createZipFile made of the folder path up to 
+	 * date, which only compresses the files that changed. Entries of files
+	 * no longer in the folder are removed, see ZipUpdater. If there is no
+	 * zip file yet, or it can't be read as one, it is created.
+	 * 
+	 * @param path
+	 * @param policy	which files are deflated and at what level
+	 * @param progress	is told about every byte and file zipped, may be null
+	 */
+	public void updateZipFile(String path, CompressionPolicy policy, ProgressTracker progress) {
+		File dir = new File(path);
+		String name = path.substring(path.lastIndexOf("/"), path.length());
+		File zip_file = new File(path.charAt(path.length() -1) != '/' ? 
+								 path + "/" + name + ".zip" : path + name + ".zip");
+		
+		if(!dir.canRead() || !dir.canWrite())
+			return;
+		
+		if(zip_file.isFile()) {
+			try {
+				new ZipUpdater(mWritePolicy, policy, spill_dir(), 
+							   Runtime.getRuntime().availableProcessors(), progress).update(dir, zip_file);
 				
-			} else if(file_list != null && file_list.length > 0) {
+				if(progress != null)
+					progress.finish();
+				return;
 				
-				for(int i = 0; i < file_list.length; i++) {
-					File temp_f = new File(target.getAbsolutePath() + "/" + file_list[i]);
-
-					if(temp_f.isDirectory())
-						deleteTarget(temp_f.getAbsolutePath());
-					else if(temp_f.isFile())
-						temp_f.delete();
-				}
+			} catch (ZipException e) {
+				/* not a zip file we can read, so it is written again */
+				Log.e("ZipException", e.getMessage());
+				
+			} catch (IOException e) {
+				Log.e("IOException", e.getMessage());
+				return;
 			}
-			if(target.exists())
-				if(target.delete())
-					return 0;
-		}	
+		}
+		
+		createZipFile(path, policy, progress);
+	}
+	
+	/**
+	 * Writes a zip of the file or folder path to out as it is read, with
+	 * nothing written to storage on the way. Large files are deflated 
+	 * straight into out, see ZipWriter. Entries are named as createZipFile
+	 * names them.
+	 * 
+	 * @param path		the file or folder to zip
+	 * @param out		where the zip is written, it is closed when done
+	 * @param policy	which files are deflated and at what level
+	 * @param progress	is told about every byte and file zipped, may be null
+	 * @throws IOException	if a file can't be read or out can't be written,
+	 * 						what was written to out is then not a valid zip.
+	 * 						A cancel ends up here too.
+	 */
+	public void writeZip(String path, OutputStream out, CompressionPolicy policy, 
+						 ProgressTracker progress) throws IOException {
+		File file = new File(path);
+		String[] list = file.isDirectory() ? file.list() : null;
+		ZipWriter zip_out = new ZipWriter(new BufferedOutputStream(out, READ_BUFFER), null, 
+										  Runtime.getRuntime().availableProcessors(), 
+										  policy, progress);
+		
+		if(progress != null)
+			progress.addTotal(file);
+		
+		try {
+			if(list == null)
+				zip_folder(file, file.getName(), zip_out);
+			else
+				for (int i = 0; i < list.length; i++)
+					zip_folder(new File(file, list[i]), list[i], zip_out);
+			
+			zip_out.close();
+			zip_out = null;
+			
+			if(progress != null)
+				progress.finish();
+			
+		} finally {
+			if(zip_out != null)
+				zip_out.abort();
+		}
+	}
+	
+	/**
+	 * Same as writeZip to an OutputStream, for a socket or other channel.
+	 * 
+	 * @param path		the file or folder to zip
+	 * @param out		where the zip is written, it is closed when done
+	 * @param policy	which files are deflated and at what level
+	 * @param progress	is told about every byte and file zipped, may be null
+	 * @throws IOException
+	 */
+	public void writeZip(String path, WritableByteChannel out, CompressionPolicy policy, 
+						 ProgressTracker progress) throws IOException {
+		writeZip(path, Channels.newOutputStream(out), policy, progress);
+	}
+	
+	/**
+	 * Tars the folder path into a tar or tar.gz file inside it. Reading
+	 * the files, gzipping and writing the archive each run on their own
+	 * thread, see StreamPipeline.
+	 * 
+	 * @param path
+	 * @param gzip		true to write a .tar.gz, false for a plain .tar
+	 * @param progress	is told about every byte and file added, may be null
+	 */
+	public void createTarFile(String path, boolean gzip, final ProgressTracker progress) {
+		final File dir = new File(path);
+		final String[] list = dir.list();
+		String name = path.substring(path.lastIndexOf("/"), path.length());
+		String _path;
+		
+		if(list == null || !dir.canRead() || !dir.canWrite())
+			return;
+		
+		if(path.charAt(path.length() -1) != '/')
+			_path = path + "/";
+		else
+			_path = path;
+		
+		final File tar_file = new File(_path + name + (gzip ? ".tar.gz" : ".tar"));
+		
+		if(progress != null)
+			for (int i = 0; i < list.length; i++)
+				if(!list[i].equals(tar_file.getName()))
+					progress.addTotal(new File(_path + list[i]));
+		
+		StreamPipeline pipeline = new StreamPipeline();
+		
+		pipeline.add(new StreamPipeline.Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				TarWriter tar = new TarWriter(out, progress);
+				
+				/* the tar file itself is left out */
+				for (int i = 0; i < list.length; i++)
+					if(!list[i].equals(tar_file.getName()))
+						tar.add(new File(dir, list[i]), list[i]);
+				tar.close();
+			}
+		});
+		
+		if(gzip)
+			pipeline.add(StreamPipeline.gzip(Deflater.DEFAULT_COMPRESSION));
+		pipeline.add(StreamPipeline.writeTo(mWritePolicy, tar_file));
+		
+		try {
+			pipeline.run();
+			mWritePolicy.finishBatch();
+			
+			if(progress != null)
+				progress.finish();
+			
+		} catch (IOException e) {
+			/* writeTo has removed the half written archive */
+			Log.e("IOException", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Gzips a file into path.gz next to it, reading, deflating and 
+	 * writing on three threads.
+	 * 
+	 * @param path		the file to gzip
+	 * @param progress	is told about every byte read, may be null
+	 */
+	public void gzipFile(String path, ProgressTracker progress) {
+		File file = new File(path);
+		
+		if(!file.isFile())
+			return;
+		
+		if(progress != null)
+			progress.addTotal(file.length(), 1);
+		
+		try {
+			new StreamPipeline().add(StreamPipeline.readFrom(file, progress))
+								.add(StreamPipeline.gzip(Deflater.DEFAULT_COMPRESSION))
+								.add(StreamPipeline.writeTo(mWritePolicy, new File(path + ".gz")))
+								.run();
+			mWritePolicy.finishBatch();
+			
+			if(progress != null) {
+				progress.addFile();
+				progress.finish();
+			}
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Extracts a .tar, .tar.gz or .tgz file into a folder named after it 
+	 * in directory, or gunzips a plain .gz file into directory. Reading, 
+	 * inflating and writing the files each run on their own thread and 
+	 * memory use doesn't depend on the size of the archive.
+	 * 
+	 * @param archive	the path of the archive
+	 * @param directory	the folder to extract into
+	 * @param progress	is told about every byte of the archive read and 
+	 * 					every file written, may be null
+	 */
+	public void extractTarFile(String archive, String directory, ProgressTracker progress) {
+		File file = new File(archive);
+		String name = file.getName();
+		String lower = name.toLowerCase();
+		boolean tar = true, gzip = true;
+		int strip;
+		
+		if(lower.endsWith(".tar.gz"))
+			strip = 7;
+		else if(lower.endsWith(".tgz"))
+			strip = 4;
+		else if(lower.endsWith(".tar")) {
+			strip = 4;
+			gzip = false;
+		} else if(lower.endsWith(".gzip")) {
+			strip = 5;
+			tar = false;
+		} else if(lower.endsWith(".gz")) {
+			strip = 3;
+			tar = false;
+		} else {
+			return;
+		}
+		
+		File dest = new File(directory, name.substring(0, name.length() - strip));
+		boolean created = tar && dest.mkdir();
+		StreamPipeline pipeline = new StreamPipeline();
+		
+		if(progress != null)
+			progress.addTotal(file.length(), tar ? 0 : 1);
+		
+		pipeline.add(StreamPipeline.readFrom(file, progress));
+		if(gzip)
+			pipeline.add(StreamPipeline.gunzip());
+		
+		if(tar)
+			pipeline.add(untar(dest, progress));
+		else
+			pipeline.add(StreamPipeline.writeTo(mWritePolicy, dest));
+		
+		try {
+			pipeline.run();
+			mWritePolicy.finishBatch();
+			
+			if(progress != null) {
+				if(!tar)
+					progress.addFile();
+				progress.finish();
+			}
+			
+		} catch (InterruptedIOException e) {
+			/* canceled, throw away everything if we made the folder */
+			if(created)
+				deleteTree(dest);
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 * @param filePath
+	 * @param newName
+	 * @return
+	 */
+	public int renameTarget(String filePath, String newName) {
+		File src = new File(filePath);
+		String ext = "";
+		File dest;
+		
+		if(src.isFile())
+			/*get file extension*/
+			ext = filePath.substring(filePath.lastIndexOf("."), filePath.length());
+		
+		if(newName.length() < 1)
+			return -1;
+	
+		String temp = filePath.substring(0, filePath.lastIndexOf("/"));
+		
+		dest = new File(temp + "/" + newName + ext);
+		if(src.renameTo(dest))
+			return 0;
+		else
+			return -1;
+	}
+	
+	/**
+	 * 
+	 * @param path
+	 * @param name
+	 * @return
+	 */
+	public int createDir(String path, String name) {
+		int len = path.length();
+		
+		if(len < 1 || len < 1)
+			return -1;
+		
+		if(path.charAt(len - 1) != '/')
+			path += "/";
+		
+		if (new File(path+name).mkdir())
+			return 0;
+		
 		return -1;
 	}
 	
+	/**
+	 * The full path name of the file to delete.
+	 * 
+	 * @param path name
+	 * @return
+	 */
+	public int deleteTarget(String path) {
+		return delete_target(new File(path), null);
+	}
+	
+	/**
+	 * Deletes several files or folders.
+	 * 
+	 * @param paths		the full path names of the files and folders to delete
+	 * @param progress	is told about every file deleted, may be null
+	 * @return			0 if everything was deleted, -1 otherwise
+	 */
+	public int deleteTarget(String[] paths, ProgressTracker progress) {
+		int rtn = 0;
+		
+		if(progress != null)
+			for(int i = 0; i < paths.length; i++)
+				progress.addTotal(0, count_files(new File(paths[i])));
+		
+		for(int i = 0; i < paths.length; i++)
+			if(delete_target(new File(paths[i]), progress) != 0)
+				rtn = -1;
+		
+		if(progress != null)
+			progress.finish();
+		
+		return rtn;
+	}
+	
 	/**
 	 * 
 	 * @param name
 	 * @return
 	 */
 	public boolean isDirectory(String name) {
-		return new File(mPathStack.peek() + "/" + name).isDirectory();
+		return getEntry(name).isDirectory();
 	}
 		
 	/**
@@ -447,8 +1386,20 @@ public class FileManager {
 	 * @return
 	 */
 	public ArrayList<String> searchInDirectory(String dir, String pathName) {
+		return searchInDirectory(dir, pathName, null);
+	}
+	
+	/**
+	 * 
+	 * @param dir
+	 * @param pathName
+	 * @param progress	can be used to cancel the search, may be null
+	 * @return			what was found, or what was found so far if canceled
+	 */
+	public ArrayList<String> searchInDirectory(String dir, String pathName, 
+											   ProgressTracker progress) {
 		ArrayList<String> names = new ArrayList<String>();
-		search_file(dir, pathName, names);
+		search_file(dir, pathName, names, progress);
 
 		return names;
 	}
@@ -465,53 +1416,29 @@ public class FileManager {
 	}
 	
 	
-	private static final Comparator alph = new Comparator<String>() {
-		@Override
-		public int compare(String arg0, String arg1) {
-			return arg0.toLowerCase().compareTo(arg1.toLowerCase());
-		}
-	};
-	
-	private final Comparator size = new Comparator<String>() {
-		@Override
-		public int compare(String arg0, String arg1) {
-			String dir = mPathStack.peek();
-			Long first = new File(dir + "/" + arg0).length();
-			Long second = new File(dir + "/" + arg1).length();
-			
-			return first.compareTo(second);
-		}
-	};
-	
-	private final Comparator type = new Comparator<String>() {
-		@Override
-		public int compare(String arg0, String arg1) {
-			String ext = null;
-			String ext2 = null;
-			int ret;
-			
-			try {
-				ext = arg0.substring(arg0.lastIndexOf(".") + 1, arg0.length()).toLowerCase();
-				ext2 = arg1.substring(arg1.lastIndexOf(".") + 1, arg1.length()).toLowerCase();
-				
-			} catch (IndexOutOfBoundsException e) {
-				return 0;
-			}
-			ret = ext.compareTo(ext2);
-			
-			if (ret == 0)
-					return arg0.toLowerCase().compareTo(arg1.toLowerCase());
-			
-			return ret;
-		}
-	};
+	/*
+	 * The names of entries in the order of sortType, which also sorts 
+	 * entries.
+	 */
+	static ArrayList<String> sortEntries(ArrayList<FileEntry> entries, int sortType) {
+		ArrayList<String> names = new ArrayList<String>(entries.size());
+		
+		EntrySorter.sort(entries, sortType);
+		for (FileEntry entry : entries)
+			names.add(entry.getName());
+		
+		return names;
+	}
 	
 	/* (non-Javadoc)
 	 * this function will take the string from the top of the directory stack
 	 * and list all files/folders that are in it and return that list so 
 	 * it can be displayed. Since this function is called every time we need
 	 * to update the the list of files to be shown to the user, this is where 
-	 * we do our sorting (by type, alphabetical, etc).
+	 * we do our sorting (by type, alphabetical, etc). Each file is looked
+	 * at once, into a FileEntry, and the sorting and getEntry use those.
+	 * Folders on the card are kept sorted in mListings, going back to one
+	 * that hasn't changed just copies its names.
 	 * 
 	 * @return
 	 */
@@ -520,72 +1447,78 @@ public class FileManager {
 		if(!mDirContent.isEmpty())
 			mDirContent.clear();
 		
-		File file = new File(mPathStack.peek());
+		String path = mPathStack.peek();
+		String[] archive = split_archive(path);
+		String[] list = null;
+		long modified = 0;
+		long listed = 0;
 		
-		if(file.exists() && file.canRead()) {
-			String[] list = file.list();
+		mIndex = null;
+		mIndexDir = null;
+		mPager = null;
+		
+		if(archive == null) {
+			ListingCache.Listing listing = mListings.get(path, mSortType, mShowHiddenFiles);
+			
+			if(listing != null) {
+				mEntries = listing.getEntries();
+				mDirContent.addAll(listing.getNames());
+				return mDirContent;
+			}
+		}
+		
+		mEntries = new HashMap<String, FileEntry>();
+		
+		if(archive != null) {
+			ZipIndex index = get_index(archive[0]);
+			
+			if(index != null && (list = index.list(archive[1])) != null) {
+				mIndex = index;
+				mIndexDir = archive[1];
+			}
+		} else {
+			File file = new File(path);
+			
+			/* read before listing, so a change while listing is seen later */
+			modified = file.lastModified();
+			listed = System.currentTimeMillis();
+			
+			if(file.exists() && file.canRead())
+				list = file.list();
+		}
+		
+		if(list != null && archive == null && list.length > PAGED_LISTING) {
+			ListingPager pager = new ListingPager(path, list, mSortType, mShowHiddenFiles,
+												  modified, listed);
+			
+			/* the first screenful now, the rest from whoever calls getPager */
+			mPager = pager;
+			while(mDirContent.isEmpty() && !pager.isDone())
+				addPage(pager, pager.nextPage(FIRST_PAGE));
+			
+			if(pager.isDone())
+				finishPager(pager, pager.sort());
+			
+		} else if(list != null) {
+			ArrayList<FileEntry> entries = new ArrayList<FileEntry>(list.length);
 			int len = list.length;
 			
 			/* add files/folder to arraylist depending on hidden status */
 			for (int i = 0; i < len; i++) {
-				if(!mShowHiddenFiles) {
-					if(list[i].toString().charAt(0) != '.')
-						mDirContent.add(list[i]);
+				if(mShowHiddenFiles || list[i].charAt(0) != '.') {
+					FileEntry entry = new FileEntry(getFile(list[i]));
 					
-				} else {
-					mDirContent.add(list[i]);
+					entries.add(entry);
+					mEntries.put(list[i], entry);
 				}
 			}
 			
-			/* sort the arraylist that was made from above for loop */
-			switch(mSortType) {
-				case SORT_NONE:
-					//no sorting needed
-					break;
-					
-				case SORT_ALPHA:
-					Object[] tt = mDirContent.toArray();
-					mDirContent.clear();
-					
-					Arrays.sort(tt, alph);
-					
-					for (Object a : tt){
-						mDirContent.add((String)a);
-					}
-					break;
-					
-				case SORT_SIZE:
-					int index = 0;
-					Object[] size_ar = mDirContent.toArray();
-					String dir = mPathStack.peek();
-					
-					Arrays.sort(size_ar, size);
-					
-					mDirContent.clear();
-					for (Object a : size_ar) {
-						if(new File(dir + "/" + (String)a).isDirectory())
-							mDirContent.add(index++, (String)a);
-						else
-							mDirContent.add((String)a);
-					}
-					break;
-					
-				case SORT_TYPE:
-					int dirindex = 0;
-					Object[] type_ar = mDirContent.toArray();
-					String current = mPathStack.peek();
-					
-					Arrays.sort(type_ar, type);
-					mDirContent.clear();
-					
-					for (Object a : type_ar) {
-						if(new File(current + "/" + (String)a).isDirectory())
-							mDirContent.add(dirindex++, (String)a);
-						else
-							mDirContent.add((String)a);
-					}
-					break;
-			}
+			ArrayList<String> names = sortEntries(entries, mSortType);
+			
+			mDirContent.addAll(names);
+			if(archive == null)
+				mListings.put(mSortType, mShowHiddenFiles, 
+						new ListingCache.Listing(path, modified, listed, names, mEntries));
 				
 		} else {
 			mDirContent.add("Emtpy");
@@ -597,31 +1530,20 @@ public class FileManager {
 	/*
 	 * 
 	 * @param file
+	 * @param name	the path of file inside the archive
 	 * @param zout
 	 * @throws IOException
 	 */
-	private void zip_folder(File file, ZipOutputStream zout) throws IOException {
-		byte[] data = new byte[BUFFER];
-		int read;
-		
+	private void zip_folder(File file, String name, ZipWriter zout) throws IOException {
 		if(file.isFile()){
-			ZipEntry entry = new ZipEntry(file.getName());
-			zout.putNextEntry(entry);
-			BufferedInputStream instream = new BufferedInputStream(
-										   new FileInputStream(file));
-
-			while((read = instream.read(data, 0, BUFFER)) != -1)
-				zout.write(data, 0, read);
-			
-			zout.closeEntry();
-			instream.close();
+			zout.add(file, name);
 		
 		} else if (file.isDirectory()) {
 			String[] list = file.list();
 			int len = list.length;
 										
 			for(int i = 0; i < len; i++)
-				zip_folder(new File(file.getPath() +"/"+ list[i]), zout);
+				zip_folder(new File(file.getPath() +"/"+ list[i]), name + "/" + list[i], zout);
 		}
 	}
 	
@@ -651,6 +1573,356 @@ public class FileManager {
 		}
 	}
 	
+	/*
+	 * copies one target for copyTree and moveTarget, the progress totals 
+	 * have already been counted by the caller
+	 */
+	private CopyResult copy_tree(File old_file, File temp_dir, ProgressTracker progress) {
+		return copy_tree(old_file, temp_dir, progress, null);
+	}
+	
+	/*
+	 * verifier may be null, if not every file is checksummed as it is 
+	 * copied, which only TreeCopier does
+	 */
+	private CopyResult copy_tree(File old_file, File temp_dir, ProgressTracker progress, 
+								 CopyVerifier verifier) {
+		if(!old_file.exists() || !temp_dir.isDirectory() || !temp_dir.canWrite()) {
+			CopyResult result = new CopyResult();
+			result.addFailure(old_file.getPath());
+			
+			return result;
+		}
+		
+		if(old_file.isDirectory() && mCopyMode == COPY_PIPELINED && verifier == null)
+			return new PipelineCopier(mWritePolicy, progress).copy(old_file, temp_dir);
+		
+		return new TreeCopier(mCopyThreads, mWritePolicy, verifier, progress).copy(old_file, temp_dir);
+	}
+	
+	/*
+	 * 
+	 * @param target
+	 * @param progress
+	 * @return
+	 */
+	private int delete_target(File target, ProgressTracker progress) {
+		/* a delete can't be undone, a cancel just stops it where it is */
+		if(progress != null && progress.isCanceled())
+			return -1;
+		
+		if(target.exists() && target.isFile() && target.canWrite()) {
+			boolean deleted = target.delete();
+			
+			if(progress != null)
+				progress.addFile();
+			return deleted ? 0 : -1;
+		}
+		
+		else if(target.exists() && target.isDirectory() && target.canRead()) {
+			String[] file_list = target.list();
+			
+			if(file_list != null && file_list.length > 0) {
+				
+				for(int i = 0; i < file_list.length; i++) {
+					File temp_f = new File(target.getAbsolutePath() + "/" + file_list[i]);
+
+					if(progress != null && progress.isCanceled())
+						return -1;
+					
+					if(temp_f.isDirectory()) {
+						delete_target(temp_f, progress);
+						
+					} else if(temp_f.isFile()) {
+						temp_f.delete();
+						
+						if(progress != null)
+							progress.addFile();
+					}
+				}
+			}
+			
+			if(progress != null)
+				progress.addFile();
+			
+			if(target.exists())
+				if(target.delete())
+					return 0;
+		}	
+		return -1;
+	}
+	
+	/**
+	 * Deletes target and, if it is a folder, everything in it. Unlike deleteTarget
+	 * this doesn't check permissions first, it is used to clean up after an 
+	 * operation that failed or was canceled.
+	 * 
+	 * @param target	the file or folder to remove
+	 */
+	static void deleteTree(File target) {
+		File[] list = target.listFiles();
+		
+		if(list != null)
+			for(int i = 0; i < list.length; i++)
+				deleteTree(list[i]);
+		
+		target.delete();
+	}
+	
+	/*
+	 * Writes the file at path in index to dest under dir. Returns false if
+	 * it couldn't be, throws if canceled. Names that would end up outside 
+	 * of dir are refused.
+	 */
+	private boolean extract_entry(ZipIndex index, String path, long size, File dest, File dir, 
+								  byte[] data, ProgressTracker progress) throws InterruptedIOException {
+		InputStream in = null;
+		OutputStream out = null;
+		int read;
+		
+		try {
+			if(!dest.getCanonicalPath().startsWith(dir.getCanonicalPath() + "/"))
+				return false;
+			
+			dest.getParentFile().mkdirs();
+			in = index.open(path);
+			out = mWritePolicy.openStream(dest, size);
+			
+			while((read = in.read(data, 0, data.length)) != -1) {
+				out.write(data, 0, read);
+				
+				if(progress != null) {
+					progress.addBytes(read);
+					progress.checkCanceled();
+				}
+			}
+			
+			out.close();
+			out = null;
+			
+			if(progress != null)
+				progress.addFile();
+			
+			return true;
+			
+		} catch (InterruptedIOException e) {
+			close_stream(out);
+			dest.delete();
+			throw e;
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			if(out != null) {
+				close_stream(out);
+				dest.delete();
+			}
+			return false;
+			
+		} finally {
+			close_stream(in);
+		}
+	}
+	
+	/*
+	 * The last stage of extractTarFile, writes every folder and file of 
+	 * the tar it reads under dir
+	 */
+	private StreamPipeline.Stage untar(final File dir, final ProgressTracker progress) {
+		return new StreamPipeline.Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				TarReader tar = new TarReader(in);
+				byte[] data = new byte[READ_BUFFER];
+				TarReader.Entry entry;
+				
+				while((entry = tar.next()) != null) {
+					String name = entry.getName();
+					
+					while(name.startsWith("./"))
+						name = name.substring(2);
+					if(name.endsWith("/"))
+						name = name.substring(0, name.length() - 1);
+					
+					if(name.length() == 0)
+						continue;
+					
+					if(!ZipIndex.isValidPath(name) || !(entry.isFile() || entry.isDirectory())) {
+						Log.e("IOException", "Skipped " + entry.getName());
+						continue;
+					}
+					
+					File dest = new File(dir, name);
+					
+					if(entry.isDirectory()) {
+						dest.mkdirs();
+						continue;
+					}
+					
+					dest.getParentFile().mkdirs();
+					OutputStream file = mWritePolicy.openStream(dest, entry.getSize());
+					int read;
+					
+					try {
+						while((read = tar.read(data, 0, data.length)) != -1) {
+							file.write(data, 0, read);
+							
+							if(progress != null)
+								progress.checkCanceled();
+						}
+						
+						file.close();
+						file = null;
+						
+					} finally {
+						if(file != null) {
+							close_stream(file);
+							dest.delete();
+						}
+					}
+					
+					dest.setLastModified(entry.getTime());
+					if(progress != null)
+						progress.addFile();
+				}
+			}
+		};
+	}
+	
+	/*
+	 * Splits a path inside a zip file into the path of the zip file and 
+	 * the path inside it, or returns null if path isn't in a zip file.
+	 */
+	private static String[] split_archive(String path) {
+		File file = new File(path);
+		String inner = "";
+		
+		while(file != null) {
+			if(file.isDirectory())
+				return null;
+			
+			if(file.isFile()) {
+				if(!file.getName().toLowerCase().endsWith(".zip"))
+					return null;
+				
+				return new String[] {file.getPath(), inner};
+			}
+			
+			inner = inner.length() == 0 ? file.getName() : file.getName() + "/" + inner;
+			file = file.getParentFile();
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * The index of a zip file from the cache, read again if the zip file 
+	 * has changed. Null if it couldn't be read.
+	 */
+	private ZipIndex get_index(String zip_file) {
+		File file = new File(zip_file);
+		
+		synchronized (mArchives) {
+			ZipIndex index = mArchives.get(zip_file);
+			
+			if(index != null && index.isCurrent(file))
+				return index;
+			
+			if(index != null) {
+				mArchives.remove(zip_file);
+				index.close();
+				delete_extracted(zip_file);
+			}
+			
+			try {
+				index = new ZipIndex(file);
+				mArchives.put(zip_file, index);
+				return index;
+				
+			} catch (IOException e) {
+				Log.e("IOException", e.getMessage());
+				return null;
+			}
+		}
+	}
+	
+	/*
+	 * Where ZipWriter compresses large entries to while they wait, null 
+	 * if there is no temp directory and they are to be deflated straight 
+	 * into the archive instead.
+	 */
+	private File spill_dir() {
+		if(mTempDir == null)
+			return null;
+		
+		File dir = new File(mTempDir, "zip");
+		
+		return dir.isDirectory() || dir.mkdirs() ? dir : null;
+	}
+	
+	/*
+	 * where openArchiveEntry extracts the entries of zip_file
+	 */
+	private File extracted_dir(String zip_file) {
+		return new File(mTempDir, "archive/" + Integer.toHexString(zip_file.hashCode()));
+	}
+	
+	/*
+	 * The entries of an archive are only kept while its index is cached,
+	 * so the temp directory never holds more than ARCHIVE_CACHE of them.
+	 */
+	private void delete_extracted(String zip_file) {
+		if(mTempDir != null)
+			deleteTree(extracted_dir(zip_file));
+	}
+	
+	private static void close_stream(Closeable stream) {
+		try {
+			if(stream != null)
+				stream.close();
+		} catch (IOException e) { }
+	}
+	
+	/*
+	 * counts target and everything under it
+	 */
+	private static int count_files(File target) {
+		int count = 1;
+		
+		if(target.isDirectory()) {
+			File[] list = target.listFiles();
+			
+			if(list != null)
+				for(int i = 0; i < list.length; i++)
+					count += count_files(list[i]);
+		}
+		
+		return count;
+	}
+	
+	/*
+	 * Whether target can be moved into dir: MOVE_IN_PLACE when it is 
+	 * already there, MOVE_REFUSED when dir is target itself or inside it,
+	 * or when the paths can't be resolved.
+	 */
+	private static int check_move(File target, File dir) {
+		try {
+			String source = target.getCanonicalPath();
+			String dest = new File(dir.getCanonicalFile(), target.getName()).getPath();
+			String into = dir.getCanonicalPath();
+			
+			if(dest.equals(source))
+				return MOVE_IN_PLACE;
+			
+			if(into.equals(source) || into.startsWith(source + File.separator))
+				return MOVE_REFUSED;
+			
+			return MOVE_OK;
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			return MOVE_REFUSED;
+		}
+	}
+	
 	// Inspired by org.apache.commons.io.FileUtils.isSymlink()
 	private static boolean isSymlink(File file) throws IOException {
 		File fileInCanonicalDir = null;
@@ -674,8 +1946,10 @@ public class FileManager {
 	 * @param dir		directory to search in
 	 * @param fileName	filename that is being searched for
 	 * @param n			ArrayList to populate results
+	 * @param progress	checked for cancel, may be null
 	 */
-	private void search_file(String dir, String fileName, ArrayList<String> n) {
+	private void search_file(String dir, String fileName, ArrayList<String> n, 
+							 ProgressTracker progress) {
 		File root_dir = new File(dir);
 		String[] list = root_dir.list();
 		
@@ -683,6 +1957,9 @@ public class FileManager {
 			int len = list.length;
 			
 			for (int i = 0; i < len; i++) {
+				if(progress != null && progress.isCanceled())
+					return;
+				
 				File check = new File(dir + "/" + list[i]);
 				String name = check.getName();
 					
@@ -695,7 +1972,7 @@ public class FileManager {
 						n.add(check.getPath());
 					
 					else if(check.canRead() && !dir.equals("/"))
-						search_file(check.getAbsolutePath(), fileName, n);
+						search_file(check.getAbsolutePath(), fileName, n, progress);
 				}
 			}
 		}
@@ -0,0 +1,262 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.FileObserver;
+
+/**
+ * The sorted listings of the last few folders shown, so going back to a
+ * folder doesn't list and sort it again. A listing is kept for each path,
+ * sort type and hidden files setting, and the least recently used ones
+ * are dropped when there are too many or they hold too many files.
+ * <br>
+ * <br>
+ * A listing is used only while the folder's time is the one it had when
+ * it was listed. Adding, removing or renaming a file changes that time,
+ * but writing to a file already in the folder doesn't, so each cached 
+ * folder is also watched and its listings are dropped on any change.
+ * Times are only good to a second or two on some cards, so a listing 
+ * taken right after the folder changed is not trusted either.
+ * <br>
+ * <br>
+ * The watchers call back on their own thread, all methods are synchronized.
+ *
+ * @author Joe Berria
+ */
+public class ListingCache {
+	/* a folder changed this close to its listing may change again unseen */
+	private static final long TIME_SLACK = 2000;
+	/* not MODIFY, which comes with every write into the folder, a file's
+	 * new size and time are picked up once it is closed */
+	private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.DELETE |
+										  FileObserver.MOVED_FROM | FileObserver.MOVED_TO |
+										  FileObserver.CLOSE_WRITE | FileObserver.ATTRIB |
+										  FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+	
+	private final int mCapacity;
+	private final int mMaxFiles;
+	private int mFiles = 0;
+	private int mHits = 0;
+	private int mMisses = 0;
+	private final LinkedHashMap<String, Listing> mListings;
+	private final HashMap<String, Watcher> mWatchers = new HashMap<String, Watcher>();
+	
+	/**
+	 * One folder as listed, only read once it is made.
+	 */
+	public static final class Listing {
+		private final String mPath;
+		private final long mModified;
+		private final long mListed;
+		private final ArrayList<String> mNames;
+		private final HashMap<String, FileEntry> mEntries;
+		
+		/**
+		 * @param path		the folder
+		 * @param modified	the folder's time, read before it was listed
+		 * @param listed	the clock when it was listed
+		 * @param names		the sorted names
+		 * @param entries	what was read about each name
+		 */
+		public Listing(String path, long modified, long listed,
+					   ArrayList<String> names, HashMap<String, FileEntry> entries) {
+			mPath = path;
+			mModified = modified;
+			mListed = listed;
+			mNames = names;
+			mEntries = entries;
+		}
+		
+		public ArrayList<String> getNames() {
+			return mNames;
+		}
+		
+		public HashMap<String, FileEntry> getEntries() {
+			return mEntries;
+		}
+	}
+	
+	/**
+	 * @param capacity	the most folders kept
+	 * @param maxFiles	the most files kept over all folders, the last 
+	 * 					folder listed is kept whatever its size
+	 */
+	public ListingCache(int capacity, int maxFiles) {
+		mCapacity = capacity;
+		mMaxFiles = maxFiles;
+		mListings = new LinkedHashMap<String, Listing>(capacity * 2, 0.75f, true);
+	}
+	
+	/**
+	 * The listing of path, or null if there is none or the folder may
+	 * have changed since.
+	 * 
+	 * @param path		the folder
+	 * @param sort		the sort type
+	 * @param hidden	if hidden files are shown
+	 * @return			the listing, or null
+	 */
+	public synchronized Listing get(String path, int sort, boolean hidden) {
+		String key = key(path, sort, hidden);
+		Listing listing = mListings.get(key);
+		
+		if(listing != null && is_current(listing)) {
+			mHits++;
+			return listing;
+		}
+		
+		if(listing != null)
+			remove(key, listing);
+		
+		mMisses++;
+		return null;
+	}
+	
+	/**
+	 * Keeps the listing of a folder and starts watching it.
+	 * 
+	 * @param sort		the sort type it was listed with
+	 * @param hidden	if hidden files were listed
+	 * @param listing	the listing
+	 */
+	public synchronized void put(int sort, boolean hidden, Listing listing) {
+		String key = key(listing.mPath, sort, hidden);
+		Listing old = mListings.get(key);
+		
+		if(old != null)
+			remove(key, old);
+		
+		mListings.put(key, listing);
+		mFiles += listing.mNames.size();
+		
+		if(!mWatchers.containsKey(listing.mPath)) {
+			Watcher watcher = new Watcher(listing.mPath);
+			
+			mWatchers.put(listing.mPath, watcher);
+			watcher.startWatching();
+		}
+		
+		/* least recently used first */
+		Iterator<Map.Entry<String, Listing>> it = mListings.entrySet().iterator();
+		
+		while(mListings.size() > 1 && (mListings.size() > mCapacity || mFiles > mMaxFiles)) {
+			Map.Entry<String, Listing> eldest = it.next();
+			Listing value = eldest.getValue();
+			
+			it.remove();
+			mFiles -= value.mNames.size();
+			unwatch(value.mPath);
+		}
+	}
+	
+	/**
+	 * Drops every listing of path.
+	 * 
+	 * @param path	the folder
+	 */
+	public synchronized void invalidate(String path) {
+		Iterator<Listing> it = mListings.values().iterator();
+		
+		while(it.hasNext()) {
+			Listing listing = it.next();
+			
+			if(listing.mPath.equals(path)) {
+				it.remove();
+				mFiles -= listing.mNames.size();
+			}
+		}
+		
+		unwatch(path);
+	}
+	
+	/**
+	 * Drops all listings and stops watching.
+	 */
+	public synchronized void clear() {
+		for (Watcher watcher : mWatchers.values())
+			watcher.stopWatching();
+		
+		mWatchers.clear();
+		mListings.clear();
+		mFiles = 0;
+	}
+	
+	/**
+	 * @return how many times get returned a listing
+	 */
+	public synchronized int getHits() {
+		return mHits;
+	}
+	
+	/**
+	 * @return how many times get had to return null
+	 */
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+	
+	private static String key(String path, int sort, boolean hidden) {
+		return path + (hidden ? "\0h" : "\0") + sort;
+	}
+	
+	private static boolean is_current(Listing listing) {
+		return listing.mModified + TIME_SLACK < listing.mListed &&
+			   new File(listing.mPath).lastModified() == listing.mModified;
+	}
+	
+	private void remove(String key, Listing listing) {
+		mListings.remove(key);
+		mFiles -= listing.mNames.size();
+		unwatch(listing.mPath);
+	}
+	
+	/* stops watching path once none of its listings are left */
+	private void unwatch(String path) {
+		for (Listing listing : mListings.values())
+			if(listing.mPath.equals(path))
+				return;
+		
+		Watcher watcher = mWatchers.remove(path);
+		
+		if(watcher != null)
+			watcher.stopWatching();
+	}
+	
+	private final class Watcher extends FileObserver {
+		private final String mPath;
+		
+		Watcher(String path) {
+			super(path, WATCH_MASK);
+			mPath = path;
+		}
+		
+		@Override
+		public void onEvent(int event, String path) {
+			invalidate(mPath);
+		}
+	}
+}
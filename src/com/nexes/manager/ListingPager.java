@@ -0,0 +1,127 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Reads a large folder a page at a time, so its first files can be shown 
+ * while the rest are still being looked at. The names all come at once
+ * from File.list, which is fast; reading each file's attributes into a 
+ * FileEntry is what takes seconds in a folder of 100k files.
+ * <br>
+ * <br>
+ * FileManager makes a pager and reads the first page itself, the rest is
+ * read with nextPage on a background thread and handed back page by page
+ * with FileManager.addPage. Once the last page is read, sort puts every
+ * entry in order, still on the background thread, and 
+ * FileManager.finishPager shows the result. A pager is only used by one
+ * thread at a time.
+ *
+ * @author Joe Berria
+ */
+public class ListingPager {
+	private final String mPath;
+	private final String[] mNames;
+	private final int mSortType;
+	private final boolean mShowHidden;
+	private final long mModified;
+	private final long mListed;
+	private final ArrayList<FileEntry> mEntries;
+	private int mNext = 0;
+	
+	/**
+	 * @param path		the folder
+	 * @param names		the names File.list gave, in its order
+	 * @param sortType	how the entries will be sorted
+	 * @param hidden	if hidden files are shown
+	 * @param modified	the folder's time, read before it was listed
+	 * @param listed	the clock when it was listed
+	 */
+	ListingPager(String path, String[] names, int sortType, boolean hidden, 
+				 long modified, long listed) {
+		mPath = path;
+		mNames = names;
+		mSortType = sortType;
+		mShowHidden = hidden;
+		mModified = modified;
+		mListed = listed;
+		mEntries = new ArrayList<FileEntry>(names.length);
+	}
+	
+	/**
+	 * @return	true once every name has been read
+	 */
+	public boolean isDone() {
+		return mNext >= mNames.length;
+	}
+	
+	/**
+	 * Reads the attributes of the next files, in the order File.list
+	 * gave them. Hidden files are skipped unless they are shown.
+	 * 
+	 * @param count	the most entries to read
+	 * @return		the entries read, empty once the pager is done
+	 */
+	public ArrayList<FileEntry> nextPage(int count) {
+		ArrayList<FileEntry> page = new ArrayList<FileEntry>(Math.min(count, mNames.length - mNext));
+		File dir = new File(mPath);
+		
+		while(mNext < mNames.length && page.size() < count) {
+			String name = mNames[mNext++];
+			
+			if(mShowHidden || name.charAt(0) != '.')
+				page.add(new FileEntry(new File(dir, name)));
+		}
+		
+		mEntries.addAll(page);
+		return page;
+	}
+	
+	/**
+	 * Sorts every entry read, call once the pager is done.
+	 * 
+	 * @return	the names in the order they are shown
+	 */
+	public ArrayList<String> sort() {
+		return FileManager.sortEntries(mEntries, mSortType);
+	}
+	
+	String getPath() {
+		return mPath;
+	}
+	
+	int getSortType() {
+		return mSortType;
+	}
+	
+	boolean showsHidden() {
+		return mShowHidden;
+	}
+	
+	long getModified() {
+		return mModified;
+	}
+	
+	long getListed() {
+		return mListed;
+	}
+}
@@ -19,6 +19,7 @@
 package com.nexes.manager;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import android.app.Dialog;
 import android.app.AlertDialog;
@@ -28,6 +29,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Build;
 import android.os.StatFs;
 import android.os.Environment;
 import android.os.Bundle;
@@ -94,6 +96,9 @@ public final class Main extends ListActivity {
 	private static final int D_MENU_ZIP = 	 0x0e;			//context menu id
 	private static final int D_MENU_UNZIP =  0x0f;			//context menu id
 	private static final int D_MENU_MOVE = 	 0x30;			//context menu id
+	private static final int D_MENU_UNZIP_SELECTED = 0x31;	//context menu id
+	private static final int D_MENU_TAR = 	 0x32;			//context menu id
+	private static final int D_MENU_UPDATE_ZIP = 0x33;		//context menu id
 	private static final int F_MENU_MOVE = 	 0x20;			//context menu id
 	private static final int F_MENU_DELETE = 0x0a;			//context menu id
 	private static final int F_MENU_RENAME = 0x0b;			//context menu id
@@ -112,6 +117,8 @@ public final class Main extends ListActivity {
 	private boolean mUseBackKey = true;
 	private String mCopiedTarget;
 	private String mZippedTarget;
+	private String mEntriesTarget;					//zip file the held entries are from
+	private String[] mZipEntries;					//entries picked to extract
 	private String mSelectedListItem;				//item from context menu
 	private TextView  mPathLabel, mDetailLabel, mStorageLabel;
 
@@ -133,6 +140,17 @@ public final class Main extends ListActivity {
         mFileMag.setShowHiddenFiles(hide);
         mFileMag.setSortType(sort);
         
+        /* files opened from inside an archive are extracted here. It has
+         * to be on the card so other applications can read them, without
+         * one entries just can't be opened. getExternalCacheDir is API 8 */
+        File temp = null;
+        if (Build.VERSION.SDK_INT >= 8)
+        	temp = getExternalCacheDir();
+        else if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState()))
+        	temp = new File(Environment.getExternalStorageDirectory(), 
+        					"Android/data/" + getPackageName() + "/cache");
+        mFileMag.setTempDir(temp);
+        
         if (savedInstanceState != null)
         	mHandler = new EventHandler(Main.this, mFileMag, savedInstanceState.getString("location"));
         else
@@ -241,7 +259,7 @@ public final class Main extends ListActivity {
     public void onListItemClick(ListView parent, View view, int position, long id) {
     	final String item = mHandler.getData(position);
     	boolean multiSelect = mHandler.isMultiSelected();
-    	File file = new File(mFileMag.getCurrentDir() + "/" + item);
+    	File file = mFileMag.getFile(item);
     	String item_ext = null;
     	
     	try {
@@ -251,11 +269,23 @@ public final class Main extends ListActivity {
     		item_ext = ""; 
     	}
     	
+    	/*
+    	 * Files inside an archive are extracted before they are opened,
+    	 * they can't be selected for copying or deleting.
+    	 */
+    	if(mFileMag.isInArchive() && !file.isDirectory()) {
+    		if(!multiSelect)
+    			mHandler.openArchiveEntry(item);
+    		
+    	} else if(multiSelect && mFileMag.isInArchive()) {
+    		Toast.makeText(this, "Files inside a zip file can't be selected", 
+    						Toast.LENGTH_SHORT).show();
+    	
     	/*
     	 * If the user has multi-select on, we just need to record the file
     	 * not make an intent for it.
     	 */
-    	if(multiSelect) {
+    	} else if(multiSelect) {
     		mTable.addMultiPosition(position, file.getPath());
     		
     	} else {
@@ -343,7 +373,8 @@ public final class Main extends ListActivity {
 		    		AlertDialog.Builder builder = new AlertDialog.Builder(this);
 		    		AlertDialog alert;
 		    		mZippedTarget = mFileMag.getCurrentDir() + "/" + item;
-		    		CharSequence[] option = {"Extract here", "Extract to..."};
+		    		CharSequence[] option = {"Browse", "Extract here", "Extract to...", 
+		    								 "Extract selected...", "Test"};
 		    		
 		    		builder.setTitle("Extract");
 		    		builder.setItems(option, new DialogInterface.OnClickListener() {
@@ -351,15 +382,32 @@ public final class Main extends ListActivity {
 						public void onClick(DialogInterface dialog, int which) {
 							switch(which) {
 								case 0:
+									mHandler.stopThumbnailThread();
+									mHandler.updateDirectory(mFileMag.getNextDir(item, false));
+									mPathLabel.setText(mFileMag.getCurrentDir());
+									
+									if(!mUseBackKey)
+										mUseBackKey = true;
+									break;
+									
+								case 1:
 									String dir = mFileMag.getCurrentDir();
 									mHandler.unZipFile(item, dir + "/");
 									break;
 									
-								case 1:
+								case 2:
 									mDetailLabel.setText("Holding " + item + 
 														 " to extract");
 									mHoldingZip = true;
 									break;
+									
+								case 3:
+									pick_zip_entries(mZippedTarget, item);
+									break;
+									
+								case 4:
+									mHandler.testZipFile(mZippedTarget);
+									break;
 							}
 						}
 		    		});
@@ -369,15 +417,28 @@ public final class Main extends ListActivity {
 	    		}
 	    	}
 	    	
-	    	/* gzip files, this will be implemented later */
+	    	/* tar and gzip files */
 	    	else if(item_ext.equalsIgnoreCase(".gzip") ||
-	    			item_ext.equalsIgnoreCase(".gz")) {
+	    			item_ext.equalsIgnoreCase(".gz")   ||
+	    			item_ext.equalsIgnoreCase(".tgz")  ||
+	    			item_ext.equalsIgnoreCase(".tar")) {
 	    		
 	    		if(mReturnIntent) {
 	    			returnIntentResults(file);
 	    			
 	    		} else {
-	    			//TODO:
+	    			AlertDialog.Builder builder = new AlertDialog.Builder(this);
+	    			CharSequence[] option = {"Extract here"};
+	    			
+	    			builder.setTitle("Extract");
+	    			builder.setItems(option, new DialogInterface.OnClickListener() {
+	    				public void onClick(DialogInterface dialog, int which) {
+	    					String dir = mFileMag.getCurrentDir();
+	    					
+	    					mHandler.unTarFile(dir + "/" + item, dir);
+	    				}
+	    			});
+	    			builder.create().show();
 	    		}
 	    	}
 	    	
@@ -575,6 +636,10 @@ public final class Main extends ListActivity {
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo info) {
     	super.onCreateContextMenu(menu, v, info);
     	
+    	/* nothing inside an archive can be changed */
+    	if(mFileMag.isInArchive())
+    		return;
+    	
     	boolean multi_data = mHandler.hasMultiSelectData();
     	AdapterContextMenuInfo _info = (AdapterContextMenuInfo)info;
     	mSelectedListItem = mHandler.getData(_info.position);
@@ -587,9 +652,15 @@ public final class Main extends ListActivity {
         	menu.add(0, D_MENU_COPY, 0, "Copy Folder");
         	menu.add(0, D_MENU_MOVE, 0, "Move(Cut) Folder");
         	menu.add(0, D_MENU_ZIP, 0, "Zip Folder");
+        	menu.add(0, D_MENU_UPDATE_ZIP, 0, "Update Folder's Zip").setEnabled(
+        			new File(mFileMag.getCurrentDir() + "/" + mSelectedListItem + "/" + 
+        					 mSelectedListItem + ".zip").isFile());
+        	menu.add(0, D_MENU_TAR, 0, "Tar.gz Folder");
         	menu.add(0, D_MENU_PASTE, 0, "Paste into folder").setEnabled(mHoldingFile || 
         																 multi_data);
         	menu.add(0, D_MENU_UNZIP, 0, "Extract here").setEnabled(mHoldingZip);
+        	menu.add(0, D_MENU_UNZIP_SELECTED, 0, "Extract selected here").setEnabled(
+        																mZipEntries != null);
     		
         /* is it a file and is multi-select turned off */
     	} else if(!mFileMag.isDirectory(mSelectedListItem) && !mHandler.isMultiSelected()) {
@@ -683,6 +754,14 @@ public final class Main extends ListActivity {
     			mHandler.zipFile(dir + "/" + mSelectedListItem);
     			return true;
     			
+    		case D_MENU_UPDATE_ZIP:
+    			mHandler.updateZipFile(mFileMag.getCurrentDir() + "/" + mSelectedListItem);
+    			return true;
+    			
+    		case D_MENU_TAR:
+    			mHandler.tarFile(mFileMag.getCurrentDir() + "/" + mSelectedListItem);
+    			return true;
+    			
     		case D_MENU_UNZIP:
     			if(mHoldingZip && mZippedTarget.length() > 1) {
     				String current_dir = mFileMag.getCurrentDir() + "/" + mSelectedListItem + "/";
@@ -703,10 +782,75 @@ public final class Main extends ListActivity {
     			mDetailLabel.setText("");
     			mZippedTarget = "";
     			return true;
+    			
+    		case D_MENU_UNZIP_SELECTED:
+    			if(mZipEntries != null) {
+    				String to_dir = mFileMag.getCurrentDir() + "/" + mSelectedListItem + "/";
+    				
+    				if(new File(mEntriesTarget).canRead() && new File(to_dir).canWrite()) {
+    					mHandler.unZipEntries(mEntriesTarget, mZipEntries, to_dir);
+    					
+    				} else {
+    					Toast.makeText(this, "You do not have permission to unzip " + 
+    								   mEntriesTarget.substring(mEntriesTarget.lastIndexOf("/") + 1), 
+    								   Toast.LENGTH_SHORT).show();
+    				}
+    			}
+    			
+    			mZipEntries = null;
+    			mDetailLabel.setText("");
+    			return true;
     	}
     	return false;
     }
     
+    /*
+     * Lets the user tick the files of a zip file they want. The ticked 
+     * entries are held until a folder's "Extract selected here" is picked.
+     */
+    private void pick_zip_entries(final String zip_path, final String zip_name) {
+    	final ArrayList<String> entries = mFileMag.listZipEntries(zip_path);
+    	final boolean[] checked = new boolean[entries.size()];
+    	AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    	
+    	if(entries.isEmpty()) {
+    		Toast.makeText(this, "Couldn't read " + zip_name, Toast.LENGTH_SHORT).show();
+    		return;
+    	}
+    	
+    	builder.setTitle("Select files to extract");
+    	builder.setMultiChoiceItems(entries.toArray(new CharSequence[entries.size()]), checked, 
+    								new DialogInterface.OnMultiChoiceClickListener() {
+			public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+				checked[which] = isChecked;
+			}
+		});
+    	builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+			public void onClick(DialogInterface dialog, int which) {
+				dialog.dismiss();
+			}
+		});
+    	builder.setPositiveButton("Select", new DialogInterface.OnClickListener() {
+			public void onClick(DialogInterface dialog, int which) {
+				ArrayList<String> picked = new ArrayList<String>();
+				
+				for(int i = 0; i < checked.length; i++)
+					if(checked[i])
+						picked.add(entries.get(i));
+				
+				if(picked.isEmpty())
+					return;
+				
+				mEntriesTarget = zip_path;
+				mZipEntries = picked.toArray(new String[picked.size()]);
+				mDetailLabel.setText("Holding " + picked.size() + " file(s) from " + 
+									 zip_name + " to extract");
+			}
+		});
+    	
+    	builder.create().show();
+    }
+    
     /* ================Menus, options menu and context menu end here=================*/
 
     @Override
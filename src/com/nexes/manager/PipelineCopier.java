@@ -0,0 +1,405 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import android.util.Log;
+
+/**
+ * Copies a directory tree with two threads. A reader thread walks the
+ * source tree and reads files ahead into a fixed ring of buffers while
+ * the calling thread takes the filled buffers and writes them out. This
+ * way the open/read/close of one file overlaps the open/write/close of
+ * another, which is where the time goes when a tree holds thousands of
+ * small files.
+ * <br>
+ * <br>
+ * The ring never grows, so memory use is RING_SIZE * BUFFER_SIZE no matter
+ * how large the tree is. Files too large to gain anything from read ahead
+ * are passed along by name and copied by a FileCopier.
+ * <br>
+ * <br>
+ * Canceling through the ProgressTracker stops the reader at the next file
+ * or buffer. The writer throws away the file it was on, and removes the
+ * destination folder too if this copy created it.
+ *
+ * @author Joe Berria
+ */
+public class PipelineCopier {
+	private static final int RING_SIZE = 	16;
+	private static final int BUFFER_SIZE = 	64 * 1024;
+	private static final long LARGE_FILE = 	(long)RING_SIZE * BUFFER_SIZE / 2;
+
+	/* what the writer should do with a chunk */
+	private static final int MKDIR = 		0x00;
+	private static final int DATA = 		0x01;
+	private static final int LARGE = 		0x02;
+	private static final int ABORT = 		0x03;
+	private static final int END = 			0x04;
+
+	private final ArrayBlockingQueue<Chunk> mFree;
+	private final ArrayBlockingQueue<Chunk> mFull;
+	private final WritePolicy mPolicy;
+	private final FileCopier mCopier;
+	private final ProgressTracker mProgress;
+
+	private static class Chunk {
+		final byte[] data = new byte[BUFFER_SIZE];
+		int type;
+		int length;
+		boolean first;
+		boolean last;
+		File src;
+		File dest;
+	}
+
+	public PipelineCopier() {
+		this(null);
+	}
+
+	/**
+	 * @param progress	counts the bytes and files as they are written, may be null
+	 */
+	public PipelineCopier(ProgressTracker progress) {
+		this(new WritePolicy(), progress);
+	}
+
+	/**
+	 * @param policy	how the copies are written, small files as well as large
+	 * @param progress	counts the bytes and files as they are written, may be null
+	 */
+	public PipelineCopier(WritePolicy policy, ProgressTracker progress) {
+		mPolicy = policy;
+		mCopier = new FileCopier(policy);
+		mProgress = progress;
+		mFree = new ArrayBlockingQueue<Chunk>(RING_SIZE);
+		mFull = new ArrayBlockingQueue<Chunk>(RING_SIZE);
+
+		for(int i = 0; i < RING_SIZE; i++)
+			mFree.add(new Chunk());
+	}
+
+	/**
+	 * Copies src, a file or a directory, into the directory destDir.
+	 *
+	 * @param src		the file or directory to copy
+	 * @param destDir	the directory to copy src into
+	 * @return			the combined result of every file in the tree
+	 */
+	public CopyResult copy(final File src, File destDir) {
+		final CopyResult result = new CopyResult();
+		final File dest = new File(destDir, src.getName());
+		boolean created = !dest.exists();
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				boolean interrupted = false;
+
+				try {
+					read_tree(src, dest, result);
+
+				} catch (InterruptedException e) {
+					interrupted = true;
+
+				} finally {
+					/* always let the writer know we are done, even if
+					 * something unexpected was thrown */
+					if(!interrupted)
+						put_end();
+				}
+			}
+		}, "PipelineCopier reader");
+		reader.start();
+
+		try {
+			write_chunks(result);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+		} finally {
+			/* if the writer stopped early the reader may be blocked on
+			 * a full ring with a file open, wake it so it closes it */
+			reader.interrupt();
+			join(reader);
+		}
+
+		if(is_canceled()) {
+			result.setCanceled();
+
+			if(created)
+				FileManager.deleteTree(dest);
+		}
+
+		return result;
+	}
+
+	/*
+	 * waits for t to end, keeping the caller's interrupt for later
+	 */
+	private static void join(Thread t) {
+		boolean interrupted = false;
+
+		while(true) {
+			try {
+				t.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * reader side, this runs on its own thread
+	 */
+	private void read_tree(File src, File dest, CopyResult result) throws InterruptedException {
+		if(src.isDirectory()) {
+			String[] list = src.list();
+
+			if(list == null) {
+				result.addFailure(src.getPath());
+				return;
+			}
+
+			put(MKDIR, src, dest);
+			for(int i = 0; i < list.length && !is_canceled(); i++)
+				read_tree(new File(src, list[i]), new File(dest, list[i]), result);
+
+		} else if(src.length() > LARGE_FILE) {
+			put(LARGE, src, dest);
+
+		} else {
+			read_file(src, dest, result);
+		}
+	}
+
+	private void read_file(File src, File dest, CopyResult result) throws InterruptedException {
+		InputStream in = null;
+		boolean first = true;
+		int read;
+
+		try {
+			in = new FileInputStream(src);
+
+			while(true) {
+				Chunk chunk = mFree.take();
+
+				if(is_canceled()) {
+					mFree.put(chunk);
+					put(ABORT, src, dest);
+					break;
+				}
+
+				read = fill(in, chunk.data);
+
+				chunk.type = DATA;
+				chunk.length = read < 0 ? 0 : read;
+				chunk.first = first;
+				chunk.last = read < BUFFER_SIZE;
+				chunk.src = src;
+				chunk.dest = dest;
+				mFull.put(chunk);
+
+				if(chunk.last)
+					break;
+				first = false;
+			}
+
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			/* the writer may have already opened dest, tell it to
+			 * throw away what it has */
+			put(ABORT, src, dest);
+
+		} finally {
+			try {
+				if(in != null)
+					in.close();
+			} catch (IOException e) { }
+		}
+	}
+
+	/*
+	 * reads until buf is full or the stream ends. Returns -1 only if
+	 * nothing at all could be read.
+	 */
+	private static int fill(InputStream in, byte[] buf) throws IOException {
+		int total = 0;
+		int read;
+
+		while(total < buf.length && (read = in.read(buf, total, buf.length - total)) != -1)
+			total += read;
+
+		return total == 0 && buf.length > 0 ? -1 : total;
+	}
+
+	private void put_end() {
+		try {
+			put(END, null, null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void put(int type, File src, File dest) throws InterruptedException {
+		Chunk chunk = mFree.take();
+
+		chunk.type = type;
+		chunk.length = 0;
+		chunk.src = src;
+		chunk.dest = dest;
+		mFull.put(chunk);
+	}
+
+	/*
+	 * writer side, this runs on the calling thread
+	 */
+	private void write_chunks(CopyResult result) throws InterruptedException {
+		RandomAccessFile out = null;
+		File current = null;
+		File target = null;
+		File failed = null;
+		long written = 0;
+
+		try {
+			while(true) {
+				Chunk chunk = mFull.take();
+
+				try {
+					switch(chunk.type) {
+						case END:
+							return;
+
+						case MKDIR:
+							if(chunk.dest.mkdir())
+								result.addDir();
+							else if(!chunk.dest.isDirectory())
+								result.addFailure(chunk.src.getPath());
+							break;
+
+						case LARGE:
+							if(is_canceled())
+								break;
+
+							try {
+								result.addFile(mCopier.copy(chunk.src, chunk.dest, mProgress));
+
+								if(mProgress != null)
+									mProgress.addFile();
+
+							} catch (InterruptedIOException e) {
+								/* canceled, FileCopier has removed the partial file */
+
+							} catch (IOException e) {
+								Log.e("IOException", e.getMessage());
+								result.addFailure(chunk.src.getPath());
+							}
+							break;
+
+						case ABORT:
+							if(chunk.src == current) {
+								out = close_quietly(out);
+								chunk.dest.delete();
+								current = null;
+							}
+							if(chunk.src != failed && !is_canceled())
+								result.addFailure(chunk.src.getPath());
+							break;
+
+						case DATA:
+							if(chunk.src == failed)
+								break;
+
+							try {
+								if(chunk.first) {
+									current = chunk.src;
+									target = chunk.dest;
+									out = mPolicy.open(chunk.dest, chunk.src.length());
+									written = 0;
+								}
+
+								out.write(chunk.data, 0, chunk.length);
+								written += chunk.length;
+
+								if(mProgress != null)
+									mProgress.addBytes(chunk.length);
+
+								if(chunk.last) {
+									RandomAccessFile done = out;
+
+									out = null;
+									mPolicy.close(done, chunk.dest, written);
+									current = null;
+									result.addFile(written);
+
+									if(mProgress != null)
+										mProgress.addFile();
+								}
+
+							} catch (IOException e) {
+								Log.e("IOException", e.getMessage());
+								out = close_quietly(out);
+								current = null;
+								failed = chunk.src;
+								result.addFailure(chunk.src.getPath());
+								chunk.dest.delete();
+							}
+							break;
+					}
+
+				} finally {
+					chunk.src = null;
+					chunk.dest = null;
+					mFree.put(chunk);
+				}
+			}
+
+		} finally {
+			/* only left open if something unexpected was thrown */
+			if(out != null) {
+				close_quietly(out);
+				target.delete();
+			}
+		}
+	}
+
+	private static RandomAccessFile close_quietly(RandomAccessFile out) {
+		try {
+			if(out != null)
+				out.close();
+		} catch (IOException e) { }
+
+		return null;
+	}
+
+	private boolean is_canceled() {
+		return mProgress != null && mProgress.isCanceled();
+	}
+}
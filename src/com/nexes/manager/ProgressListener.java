@@ -0,0 +1,38 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+/**
+ * Implement this interface to be told how far along a long running
+ * FileManager operation is. The callback is made on whatever thread is
+ * doing the work, so implementations that touch the GUI must hand the
+ * information over to the GUI thread themselves.
+ *
+ * @author Joe Berria
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called at most a few times a second while an operation runs,
+	 * and once more when it has finished.
+	 *
+	 * @param progress	the tracker of the running operation
+	 */
+	void onProgress(ProgressTracker progress);
+}
@@ -0,0 +1,249 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+
+/**
+ * Keeps count of the bytes and files an operation has done out of its
+ * total, and works out a smoothed throughput and the time remaining.
+ * <br>
+ * <br>
+ * The counting methods are called from inside copy loops so they are
+ * kept cheap. The clock is only looked at after every CHECK_BYTES bytes
+ * or finished file, and the listener is only called once REPORT_INTERVAL
+ * has gone by since the last call. Several threads may count into the
+ * same tracker.
+ * <br>
+ * <br>
+ * A tracker is also how a running operation is stopped. Once cancel has
+ * been called, the operation notices the next time it checks, between
+ * buffers or entries, stops and cleans up what it left half done.
+ *
+ * @author Joe Berria
+ */
+public class ProgressTracker {
+	private static final long REPORT_INTERVAL = 	250;
+	private static final long CHECK_BYTES = 		128 * 1024;
+	/* weight of the newest sample in the throughput average */
+	private static final double SMOOTHING = 		0.25;
+
+	private final ProgressListener mListener;
+	private volatile boolean mCanceled = false;
+
+	private long mTotalBytes = 0;
+	private int mTotalFiles = 0;
+	private long mBytesDone = 0;
+	private int mFilesDone = 0;
+	private long mNextCheck = CHECK_BYTES;
+
+	private long mStartTime;
+	private long mLastTime;
+	private long mLastBytes = 0;
+	private double mRate = 0;
+
+	/**
+	 * @param listener	who to tell about progress, may be null
+	 */
+	public ProgressTracker(ProgressListener listener) {
+		mListener = listener;
+		mStartTime = mLastTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Adds to the amount of work the operation has to do.
+	 *
+	 * @param bytes	bytes to add to the total
+	 * @param files	files to add to the total
+	 */
+	public synchronized void addTotal(long bytes, int files) {
+		mTotalBytes += bytes;
+		mTotalFiles += files;
+	}
+
+	/**
+	 * Adds every file under target, or target itself if it is a file,
+	 * to the total.
+	 *
+	 * @param target	the file or folder the operation will work on
+	 */
+	public void addTotal(File target) {
+		if(target.isDirectory()) {
+			File[] list = target.listFiles();
+
+			if(list != null)
+				for(int i = 0; i < list.length; i++)
+					addTotal(list[i]);
+
+		} else if(target.isFile()) {
+			addTotal(target.length(), 1);
+		}
+	}
+
+	/**
+	 * Counts bytes that have been done.
+	 *
+	 * @param bytes	number of bytes just done
+	 */
+	public void addBytes(long bytes) {
+		boolean report = false;
+
+		synchronized (this) {
+			mBytesDone += bytes;
+
+			if(mBytesDone >= mNextCheck) {
+				mNextCheck = mBytesDone + CHECK_BYTES;
+				report = update_rate(false);
+			}
+		}
+
+		if(report)
+			mListener.onProgress(this);
+	}
+
+	/**
+	 * Counts a file that has been finished.
+	 */
+	public void addFile() {
+		boolean report;
+
+		synchronized (this) {
+			mFilesDone++;
+			report = update_rate(false);
+		}
+
+		if(report)
+			mListener.onProgress(this);
+	}
+
+	/**
+	 * Tells the listener about the final counts, call this when the
+	 * operation is over.
+	 */
+	public void finish() {
+		boolean report;
+
+		synchronized (this) {
+			report = update_rate(true);
+		}
+
+		if(report)
+			mListener.onProgress(this);
+	}
+
+	/**
+	 * Asks the operation using this tracker to stop. This can be
+	 * called from any thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+	}
+
+	/**
+	 * @return	true if cancel has been called
+	 */
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * Operations call this between buffers and entries.
+	 *
+	 * @throws InterruptedIOException	if cancel has been called
+	 */
+	public void checkCanceled() throws InterruptedIOException {
+		if(mCanceled)
+			throw new InterruptedIOException("Operation canceled");
+	}
+
+	public synchronized long getBytesDone() {
+		return mBytesDone;
+	}
+
+	public synchronized long getTotalBytes() {
+		return mTotalBytes;
+	}
+
+	public synchronized int getFilesDone() {
+		return mFilesDone;
+	}
+
+	public synchronized int getTotalFiles() {
+		return mTotalFiles;
+	}
+
+	/**
+	 * @return	how far along the operation is, from 0 to 100. Uses bytes
+	 * 			when the total is known, files otherwise.
+	 */
+	public synchronized int getPercent() {
+		if(mTotalBytes > 0)
+			return (int)Math.min(100, mBytesDone * 100 / mTotalBytes);
+		if(mTotalFiles > 0)
+			return Math.min(100, mFilesDone * 100 / mTotalFiles);
+
+		return 0;
+	}
+
+	/**
+	 * @return	the moving average throughput in bytes per second
+	 */
+	public synchronized long getBytesPerSecond() {
+		return (long)mRate;
+	}
+
+	/**
+	 * @return	the estimated number of seconds left, or -1 if unknown
+	 */
+	public synchronized long getSecondsLeft() {
+		if(mRate < 1 || mTotalBytes <= 0)
+			return -1;
+
+		return (long)(Math.max(0, mTotalBytes - mBytesDone) / mRate);
+	}
+
+	/**
+	 * @return	milliseconds since the tracker was created
+	 */
+	public synchronized long getElapsedTime() {
+		return mLastTime - mStartTime;
+	}
+
+	/*
+	 * must hold the lock. Returns true if the listener should be called
+	 */
+	private boolean update_rate(boolean force) {
+		long now = System.currentTimeMillis();
+		long elapsed = now - mLastTime;
+
+		if(!force && elapsed < REPORT_INTERVAL)
+			return false;
+
+		if(elapsed > 0) {
+			double rate = (mBytesDone - mLastBytes) * 1000.0 / elapsed;
+
+			mRate = mRate == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * mRate;
+			mLastBytes = mBytesDone;
+			mLastTime = now;
+		}
+
+		return mListener != null;
+	}
+}
@@ -165,7 +165,8 @@ public class Settings extends Activity {
 			@Override
 			public void onClick(View view) {
 				AlertDialog.Builder builder = new AlertDialog.Builder(Settings.this);
-    			CharSequence[] options = {"None", "Alphabetical", "Type", "Size"};
+    			CharSequence[] options = {"None", "Alphabetical", "Type", "Size", "Date", 
+    									 "Alphabetical, numbers by value"};
     			
     			builder.setTitle("Sort by...");
     			builder.setIcon(R.drawable.filter);
@@ -196,6 +197,18 @@ public class Settings extends Activity {
 							mSortChanged = true;
 							is.putExtra("SORT", sort_state);
 							break;
+							
+						case 4:
+							sort_state = 4;
+							mSortChanged = true;
+							is.putExtra("SORT", sort_state);
+							break;
+							
+						case 5:
+							sort_state = 5;
+							mSortChanged = true;
+							is.putExtra("SORT", sort_state);
+							break;
 						}
 					}
 				});
@@ -0,0 +1,384 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs a chain of stages, each on its own thread, where every stage reads
+ * what the stage before it wrote. Reading a file, deflating it and writing
+ * the result can then each keep a core busy instead of taking turns.
+ * <br>
+ * <br>
+ * Stages are joined by pipes made of a fixed ring of blocks. A stage that
+ * gets ahead waits for a free block, so memory stays the same however 
+ * large the stream is. The first stage has no input and the last no 
+ * output, the last stage runs on the calling thread.
+ * <br>
+ * <br>
+ * When a stage fails, or is canceled through a ProgressTracker, every 
+ * pipe is broken so the other stages stop as well, and run throws what 
+ * the first failing stage threw.
+ *
+ * @author Joe Berria
+ */
+public class StreamPipeline {
+	private static final int BLOCK_SIZE = 	64 * 1024;
+	private static final int BLOCKS = 		8;
+	
+	private final ArrayList<Stage> mStages = new ArrayList<Stage>();
+	private final ArrayList<BlockPipe> mPipes = new ArrayList<BlockPipe>();
+	private IOException mError;
+	
+	/**
+	 * One step of the pipeline
+	 */
+	public interface Stage {
+		/**
+		 * @param in	what the stage before wrote, null for the first stage
+		 * @param out	where to write for the next stage, null for the last
+		 * 				stage. Closing it ends the input of the next stage.
+		 * @throws IOException
+		 */
+		public void run(InputStream in, OutputStream out) throws IOException;
+	}
+	
+	/**
+	 * @param stage	the next stage
+	 * @return		this pipeline
+	 */
+	public StreamPipeline add(Stage stage) {
+		mStages.add(stage);
+		return this;
+	}
+	
+	/**
+	 * Runs every stage and waits for all of them to finish.
+	 * 
+	 * @throws IOException	the first error of any stage, an 
+	 * 						InterruptedIOException if it was canceled
+	 */
+	public void run() throws IOException {
+		int count = mStages.size();
+		Thread[] threads = new Thread[count - 1];
+		
+		for(int i = 0; i < count - 1; i++)
+			mPipes.add(new BlockPipe());
+		
+		for(int i = 0; i < count - 1; i++) {
+			final Stage stage = mStages.get(i);
+			final InputStream in = i > 0 ? mPipes.get(i - 1).mInput : null;
+			final OutputStream out = mPipes.get(i).mOutput;
+			
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					run_stage(stage, in, out);
+				}
+			}, "StreamPipeline stage " + i);
+			threads[i].start();
+		}
+		
+		run_stage(mStages.get(count - 1), count > 1 ? mPipes.get(count - 2).mInput : null, null);
+		
+		for(int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				break_pipes(new InterruptedIOException("Interrupted"));
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		synchronized (this) {
+			if(mError != null)
+				throw mError;
+		}
+	}
+	
+	private void run_stage(Stage stage, InputStream in, OutputStream out) {
+		try {
+			stage.run(in, out);
+			
+			/* whatever the stage left unread, like the padding after
+			 * the end of a tar, still has to be taken off the pipe or
+			 * the stage before would wait for room forever */
+			if(in != null)
+				while(in.skip(BLOCK_SIZE) > 0 || in.read() != -1)
+					;
+			if(out != null)
+				out.close();
+			
+		} catch (IOException e) {
+			break_pipes(e);
+			
+		} catch (RuntimeException e) {
+			break_pipes(new IOException(String.valueOf(e)));
+		}
+	}
+	
+	private void break_pipes(IOException e) {
+		synchronized (this) {
+			/* a stage that stopped because its pipe broke isn't 
+			 * the one to blame */
+			if(mError == null)
+				mError = e;
+		}
+		
+		for(BlockPipe pipe : mPipes)
+			pipe.breakPipe();
+	}
+	
+	/**
+	 * A first stage that reads file.
+	 * 
+	 * @param file		the file to read
+	 * @param progress	counts the bytes read, may be null
+	 * @return			the stage
+	 */
+	public static Stage readFrom(final File file, final ProgressTracker progress) {
+		return new Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				FileInputStream src = new FileInputStream(file);
+				
+				try {
+					copy(src, out, progress);
+				} finally {
+					src.close();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * A last stage that writes file as policy says. If it fails the 
+	 * partly written file is deleted.
+	 * 
+	 * @param policy	how file is written
+	 * @param file		the file to write
+	 * @return			the stage
+	 */
+	public static Stage writeTo(final WritePolicy policy, final File file) {
+		return new Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				OutputStream dest = policy.openStream(file, -1);
+				
+				try {
+					copy(in, dest, null);
+					dest.close();
+					dest = null;
+					
+				} finally {
+					if(dest != null) {
+						try {
+							dest.close();
+						} catch (IOException e) { }
+						file.delete();
+					}
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @param level	the deflate level, see Deflater
+	 * @return		a stage that gzips its input
+	 */
+	public static Stage gzip(final int level) {
+		return new Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				GZIPOutputStream gzip = new GZIPOutputStream(out, BLOCK_SIZE) {
+					{
+						def.setLevel(level);
+					}
+				};
+				
+				copy(in, gzip, null);
+				gzip.close();
+			}
+		};
+	}
+	
+	/**
+	 * @return a stage that gunzips its input
+	 */
+	public static Stage gunzip() {
+		return new Stage() {
+			public void run(InputStream in, OutputStream out) throws IOException {
+				GZIPInputStream gunzip = new GZIPInputStream(in, BLOCK_SIZE);
+				
+				copy(gunzip, out, null);
+				gunzip.close();
+			}
+		};
+	}
+	
+	private static void copy(InputStream in, OutputStream out, ProgressTracker progress) 
+																	throws IOException {
+		byte[] data = new byte[BLOCK_SIZE];
+		int read;
+		
+		while((read = in.read(data)) != -1) {
+			out.write(data, 0, read);
+			
+			if(progress != null) {
+				progress.addBytes(read);
+				progress.checkCanceled();
+			}
+		}
+	}
+	
+	/*
+	 * A ring of blocks between two threads. The writer fills the block
+	 * after the last full one and hands it over when it is full, the 
+	 * reader empties the first full block and hands it back.
+	 */
+	private static class BlockPipe {
+		private final byte[][] mBlocks = new byte[BLOCKS][BLOCK_SIZE];
+		private final int[] mLengths = new int[BLOCKS];
+		private int mHead = 0;
+		private int mFull = 0;
+		private int mWritePos = 0;
+		private int mReadPos = 0;
+		private boolean mClosed = false;
+		private boolean mBroken = false;
+		
+		private final OutputStream mOutput = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte)b}, 0, 1);
+			}
+			
+			@Override
+			public void write(byte[] data, int off, int len) throws IOException {
+				while(len > 0) {
+					int block = writable();
+					int count = Math.min(len, BLOCK_SIZE - mWritePos);
+					
+					System.arraycopy(data, off, mBlocks[block], mWritePos, count);
+					mWritePos += count;
+					off += count;
+					len -= count;
+					
+					if(mWritePos == BLOCK_SIZE)
+						publish();
+				}
+			}
+			
+			@Override
+			public void close() throws IOException {
+				synchronized (BlockPipe.this) {
+					if(mClosed)
+						return;
+				}
+				
+				if(mWritePos > 0)
+					publish();
+				
+				synchronized (BlockPipe.this) {
+					mClosed = true;
+					BlockPipe.this.notifyAll();
+				}
+			}
+		};
+		
+		private final InputStream mInput = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				
+				return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+			}
+			
+			@Override
+			public int read(byte[] data, int off, int len) throws IOException {
+				if(len == 0)
+					return 0;
+				
+				synchronized (BlockPipe.this) {
+					while(mFull == 0 && !mClosed && !mBroken)
+						wait_for_change();
+					
+					if(mBroken)
+						throw new IOException("Pipe broken");
+					if(mFull == 0)
+						return -1;
+				}
+				
+				/* only this thread touches the head block while it is full */
+				int count = Math.min(len, mLengths[mHead] - mReadPos);
+				
+				System.arraycopy(mBlocks[mHead], mReadPos, data, off, count);
+				mReadPos += count;
+				
+				if(mReadPos == mLengths[mHead]) {
+					synchronized (BlockPipe.this) {
+						mHead = (mHead + 1) % BLOCKS;
+						mFull--;
+						mReadPos = 0;
+						BlockPipe.this.notifyAll();
+					}
+				}
+				
+				return count;
+			}
+		};
+		
+		/*
+		 * waits for room and returns the block being filled
+		 */
+		private synchronized int writable() throws IOException {
+			while(mFull == BLOCKS && !mBroken)
+				wait_for_change();
+			
+			if(mBroken || mClosed)
+				throw new IOException("Pipe broken");
+			
+			return (mHead + mFull) % BLOCKS;
+		}
+		
+		private synchronized void publish() {
+			mLengths[(mHead + mFull) % BLOCKS] = mWritePos;
+			mFull++;
+			mWritePos = 0;
+			notifyAll();
+		}
+		
+		private synchronized void breakPipe() {
+			mBroken = true;
+			notifyAll();
+		}
+		
+		private void wait_for_change() throws InterruptedIOException {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted");
+			}
+		}
+	}
+}
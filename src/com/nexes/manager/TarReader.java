@@ -0,0 +1,313 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Reads a tar archive from a stream one entry at a time, without ever 
+ * seeking, so it can sit at the end of a StreamPipeline.
+ * <br>
+ * <br>
+ * Understands ustar and old style headers, GNU long names and the path
+ * and size of pax headers, which covers what GNU tar, bsdtar and busybox
+ * write. Sizes in base 256 are read too.
+ *
+ * @author Joe Berria
+ */
+public class TarReader {
+	private static final int BLOCK = TarWriter.BLOCK;
+	
+	private final InputStream mIn;
+	private final byte[] mHeader = new byte[BLOCK];
+	private final byte[] mSkip = new byte[BLOCK];
+	/* data left in the current entry, and the padding after it */
+	private long mLeft = 0;
+	private int mPadding = 0;
+	
+	/**
+	 * One entry of the archive
+	 */
+	public static class Entry {
+		String name;
+		char type;
+		long size;
+		long time;
+		
+		public String getName() {
+			return name;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		/**
+		 * @return the modification time, in milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+		
+		public boolean isDirectory() {
+			return type == '5' || (is_plain() && name.endsWith("/"));
+		}
+		
+		/**
+		 * @return true for a regular file, false for folders, links, 
+		 * 		   devices and the like
+		 */
+		public boolean isFile() {
+			return is_plain() && !name.endsWith("/");
+		}
+		
+		private boolean is_plain() {
+			return type == '0' || type == 0 || type == '7';
+		}
+	}
+	
+	public TarReader(InputStream in) {
+		mIn = in;
+	}
+	
+	/**
+	 * Skips whatever is left of the current entry and reads the next header.
+	 * 
+	 * @return	the next entry, or null at the end of the archive
+	 * @throws IOException
+	 */
+	public Entry next() throws IOException {
+		String long_name = null;
+		long pax_size = -1;
+		
+		while(true) {
+			skip_rest();
+			
+			if(!read_block(mHeader) || is_zero(mHeader))
+				return null;
+			
+			if(!check_sum())
+				throw new IOException("Not a tar archive, or a damaged one");
+			
+			Entry entry = new Entry();
+			
+			entry.type = (char)(mHeader[156] & 0xff);
+			entry.size = number(124, 12);
+			entry.time = number(136, 12) * 1000;
+			entry.name = string(0, 100);
+			
+			if(string(257, 5).equals("ustar") && mHeader[345] != 0)
+				entry.name = string(345, 155) + "/" + entry.name;
+			
+			mLeft = entry.size;
+			mPadding = (int)((BLOCK - entry.size % BLOCK) % BLOCK);
+			
+			if(entry.type == 'L') {
+				long_name = trim(utf8(read_data(entry.size)));
+				continue;
+				
+			} else if(entry.type == 'x') {
+				String pax = utf8(read_data(entry.size));
+				String path = pax_value(pax, "path");
+				String size = pax_value(pax, "size");
+				
+				if(path != null)
+					long_name = path;
+				if(size != null)
+					pax_size = Long.parseLong(size.trim());
+				continue;
+				
+			} else if(entry.type == 'g') {
+				continue;
+			}
+			
+			if(long_name != null)
+				entry.name = long_name;
+			if(pax_size >= 0) {
+				entry.size = pax_size;
+				mLeft = pax_size;
+				mPadding = (int)((BLOCK - pax_size % BLOCK) % BLOCK);
+			}
+			
+			/* links, devices and the like carry no data of their own */
+			if(entry.type == '1' || entry.type == '2' || entry.type == '5') {
+				mLeft = 0;
+				mPadding = 0;
+			}
+			
+			return entry;
+		}
+	}
+	
+	/**
+	 * Reads the data of the entry returned by next.
+	 * 
+	 * @return the number of bytes read, or -1 at the end of the entry
+	 * @throws IOException
+	 */
+	public int read(byte[] data, int off, int len) throws IOException {
+		if(mLeft == 0)
+			return -1;
+		
+		int read = mIn.read(data, off, (int)Math.min(len, mLeft));
+		
+		if(read == -1)
+			throw new IOException("Tar archive is cut short");
+		
+		mLeft -= read;
+		return read;
+	}
+	
+	private void skip_rest() throws IOException {
+		while(mLeft > 0)
+			read(mSkip, 0, mSkip.length);
+		
+		if(mPadding > 0)
+			read_fully(mSkip, mPadding);
+		mPadding = 0;
+	}
+	
+	private byte[] read_data(long size) throws IOException {
+		if(size > 1024 * 1024)
+			throw new IOException("Tar header too large");
+		
+		byte[] data = new byte[(int)size];
+		
+		read_fully(data, data.length);
+		mLeft = 0;
+		return data;
+	}
+	
+	/*
+	 * Returns false if the stream ended before the block started
+	 */
+	private boolean read_block(byte[] block) throws IOException {
+		int total = 0;
+		int read;
+		
+		while(total < block.length && (read = mIn.read(block, total, block.length - total)) != -1)
+			total += read;
+		
+		if(total == 0)
+			return false;
+		if(total < block.length)
+			throw new IOException("Tar archive is cut short");
+		
+		return true;
+	}
+	
+	private void read_fully(byte[] data, int length) throws IOException {
+		int total = 0;
+		int read;
+		
+		while(total < length) {
+			if((read = mIn.read(data, total, length - total)) == -1)
+				throw new IOException("Tar archive is cut short");
+			total += read;
+		}
+	}
+	
+	private boolean check_sum() {
+		long sum = 0;
+		
+		for(int i = 0; i < BLOCK; i++)
+			sum += (i >= 148 && i < 156) ? ' ' : mHeader[i] & 0xff;
+		
+		return sum == number(148, 8);
+	}
+	
+	/*
+	 * an octal field, or base 256 if its first bit is set
+	 */
+	private long number(int pos, int length) {
+		long value = 0;
+		
+		if((mHeader[pos] & 0x80) != 0) {
+			for(int i = pos + 1; i < pos + length; i++)
+				value = (value << 8) | (mHeader[i] & 0xff);
+			return value;
+		}
+		
+		for(int i = pos; i < pos + length; i++) {
+			int c = mHeader[i];
+			
+			if(c >= '0' && c <= '7')
+				value = (value << 3) + (c - '0');
+			else if(c == 0 || (c == ' ' && value > 0))
+				break;
+		}
+		
+		return value;
+	}
+	
+	private String string(int pos, int length) {
+		int end = pos;
+		
+		while(end < pos + length && mHeader[end] != 0)
+			end++;
+		
+		try {
+			return new String(mHeader, pos, end - pos, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(mHeader, pos, end - pos);
+		}
+	}
+	
+	/*
+	 * pax records are "length key=value\n"
+	 */
+	private static String pax_value(String pax, String key) {
+		String[] records = pax.split("\n");
+		
+		for(int i = 0; i < records.length; i++) {
+			int space = records[i].indexOf(' ');
+			int equals = records[i].indexOf('=');
+			
+			if(space >= 0 && equals > space && 
+			   records[i].substring(space + 1, equals).equals(key))
+				return records[i].substring(equals + 1);
+		}
+		
+		return null;
+	}
+	
+	private static boolean is_zero(byte[] block) {
+		for(int i = 0; i < block.length; i++)
+			if(block[i] != 0)
+				return false;
+		
+		return true;
+	}
+	
+	private static String trim(String name) {
+		int end = name.indexOf(0);
+		
+		return end < 0 ? name : name.substring(0, end);
+	}
+	
+	private static String utf8(byte[] data) {
+		try {
+			return new String(data, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(data);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive, in the ustar format, to a stream.
+ * <br>
+ * <br>
+ * Names that don't fit in a ustar header are split between its prefix 
+ * and name fields, and if that isn't enough a GNU long name entry is 
+ * written first. Files over 8 Gb have their size written in base 256, 
+ * as GNU tar does.
+ *
+ * @author Joe Berria
+ */
+public class TarWriter {
+	static final int BLOCK = 		512;
+	/* the archive is padded out to a whole record, as tar does */
+	private static final int RECORD = 		20 * BLOCK;
+	private static final int BUFFER_SIZE = 	64 * 1024;
+	private static final long MAX_OCTAL = 	077777777777L;
+	
+	private final OutputStream mOut;
+	private final ProgressTracker mProgress;
+	private final byte[] mHeader = new byte[BLOCK];
+	private final byte[] mData = new byte[BUFFER_SIZE];
+	private long mWritten = 0;
+	
+	/**
+	 * @param out		where the archive is written, closed by close
+	 * @param progress	counts the bytes and files added, may be null
+	 */
+	public TarWriter(OutputStream out, ProgressTracker progress) {
+		mOut = out;
+		mProgress = progress;
+	}
+	
+	/**
+	 * Adds file, or if it is a folder everything in it.
+	 * 
+	 * @param file	the file or folder to add
+	 * @param name	its path in the archive, with / between folders
+	 * @throws IOException
+	 */
+	public void add(File file, String name) throws IOException {
+		if(mProgress != null)
+			mProgress.checkCanceled();
+		
+		if(file.isDirectory()) {
+			String[] list = file.list();
+			
+			write_header(name + "/", '5', 0, file.lastModified(), 0755);
+			
+			if(list != null)
+				for(int i = 0; i < list.length; i++)
+					add(new File(file, list[i]), name + "/" + list[i]);
+			return;
+		}
+		
+		FileInputStream in = new FileInputStream(file);
+		long size = in.getChannel().size();
+		long left = size;
+		int read;
+		
+		try {
+			write_header(name, '0', size, file.lastModified(), 0644);
+			
+			while(left > 0 && (read = in.read(mData, 0, (int)Math.min(mData.length, left))) != -1) {
+				write(mData, 0, read);
+				left -= read;
+				
+				if(mProgress != null) {
+					mProgress.addBytes(read);
+					mProgress.checkCanceled();
+				}
+			}
+		} finally {
+			in.close();
+		}
+		
+		if(left > 0)
+			throw new IOException(file.getPath() + " shrank while it was added");
+		
+		pad();
+		if(mProgress != null)
+			mProgress.addFile();
+	}
+	
+	/**
+	 * Writes the end of the archive and closes the stream.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		Arrays.fill(mData, 0, RECORD, (byte)0);
+		write(mData, 0, 2 * BLOCK);
+		
+		if(mWritten % RECORD != 0)
+			write(mData, 0, (int)(RECORD - mWritten % RECORD));
+		
+		mOut.close();
+	}
+	
+	private void write_header(String name, char type, long size, long time, int mode) 
+																	throws IOException {
+		byte[] bytes = utf8(name);
+		int split = -1;
+		
+		if(bytes.length > 100) {
+			/* a prefix of up to 155 bytes, cut at a slash */
+			for(int i = Math.min(bytes.length - 1, 155); i > 0; i--) {
+				if(bytes[i] == '/' && bytes.length - i - 1 <= 100 && bytes.length - i - 1 > 0) {
+					split = i;
+					break;
+				}
+			}
+			
+			if(split < 0) {
+				/* GNU long name, the name itself is the data of the entry */
+				fill_header(utf8("././@LongLink"), null, 0644, 'L', bytes.length + 1, 0);
+				write(mHeader, 0, BLOCK);
+				write(bytes, 0, bytes.length);
+				mData[0] = 0;
+				write(mData, 0, 1);
+				pad();
+				
+				byte[] cut = new byte[100];
+				System.arraycopy(bytes, 0, cut, 0, 100);
+				bytes = cut;
+			}
+		}
+		
+		if(split >= 0) {
+			byte[] prefix = new byte[split];
+			byte[] rest = new byte[bytes.length - split - 1];
+			
+			System.arraycopy(bytes, 0, prefix, 0, split);
+			System.arraycopy(bytes, split + 1, rest, 0, rest.length);
+			fill_header(rest, prefix, mode, type, size, time);
+		} else {
+			fill_header(bytes, null, mode, type, size, time);
+		}
+		
+		write(mHeader, 0, BLOCK);
+	}
+	
+	private void fill_header(byte[] name, byte[] prefix, int mode, char type, long size,
+							 long time) {
+		Arrays.fill(mHeader, (byte)0);
+		
+		System.arraycopy(name, 0, mHeader, 0, Math.min(name.length, 100));
+		octal(100, 8, mode);
+		octal(108, 8, 0);
+		octal(116, 8, 0);
+		
+		if(size > MAX_OCTAL) {
+			mHeader[124] = (byte)0x80;
+			for(int i = 0; i < 8; i++)
+				mHeader[135 - i] = (byte)(size >> (8 * i));
+		} else {
+			octal(124, 12, size);
+		}
+		
+		octal(136, 12, Math.max(0, time / 1000));
+		mHeader[156] = (byte)type;
+		System.arraycopy(utf8("ustar"), 0, mHeader, 257, 5);
+		mHeader[263] = '0';
+		mHeader[264] = '0';
+		
+		if(prefix != null)
+			System.arraycopy(prefix, 0, mHeader, 345, prefix.length);
+		
+		/* the checksum is taken with its own field full of spaces */
+		long sum = 0;
+		
+		Arrays.fill(mHeader, 148, 156, (byte)' ');
+		for(int i = 0; i < BLOCK; i++)
+			sum += mHeader[i] & 0xff;
+		octal(148, 7, sum);
+	}
+	
+	/*
+	 * value in octal digits, zero filled, ending in a nul
+	 */
+	private void octal(int pos, int length, long value) {
+		for(int i = pos + length - 2; i >= pos; i--) {
+			mHeader[i] = (byte)('0' + (value & 7));
+			value >>= 3;
+		}
+		mHeader[pos + length - 1] = 0;
+	}
+	
+	private void pad() throws IOException {
+		int extra = (int)(mWritten % BLOCK);
+		
+		if(extra != 0) {
+			Arrays.fill(mData, 0, BLOCK - extra, (byte)0);
+			write(mData, 0, BLOCK - extra);
+		}
+	}
+	
+	private void write(byte[] data, int off, int len) throws IOException {
+		mOut.write(data, off, len);
+		mWritten += len;
+	}
+	
+	static byte[] utf8(String name) {
+		try {
+			return name.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return name.getBytes();
+		}
+	}
+}
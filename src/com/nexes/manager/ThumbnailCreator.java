@@ -27,6 +27,10 @@ import java.lang.ref.SoftReference;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.util.Log;
 
 public class ThumbnailCreator extends Thread {	
 	private int mWidth;
@@ -37,8 +41,18 @@ public class ThumbnailCreator extends Thread {
 	private String mDir;
 	private Handler mHandler;
 	private boolean mStop = false;
+	private FileManager mFileMang;
 
 	public ThumbnailCreator(int width, int height) {
+		this(width, height, null);
+	}
+	
+	/**
+	 * @param manager	used to find the images when they are inside an 
+	 * 					archive, may be null
+	 */
+	public ThumbnailCreator(int width, int height, FileManager manager) {
+		mFileMang = manager;
 		mHeight = height;
 		mWidth = width;
 		
@@ -70,7 +84,8 @@ public class ThumbnailCreator extends Thread {
 				mFiles = null;
 				return;
 			}
-			final File file = new File(mDir + "/" + mFiles.get(i));
+			final File file = mFileMang != null ? mFileMang.getFile(mDir, mFiles.get(i)) :
+												  new File(mDir + "/" + mFiles.get(i));
 			
 			if (isImageFile(file.getName())) {
 				long len_kb = file.length() / 1024;
@@ -82,17 +97,22 @@ public class ThumbnailCreator extends Thread {
 				if (len_kb > 1000 && len_kb < 5000) {
 					options.inSampleSize = 32;
 					options.inPurgeable = true;
-					mThumb = new SoftReference<Bitmap>(BitmapFactory.decodeFile(file.getPath(), options));
+					mThumb = new SoftReference<Bitmap>(decode(file, options));
 										
 				} else if (len_kb >= 5000) {
 					options.inSampleSize = 32;
 					options.inPurgeable = true;
-					mThumb = new SoftReference<Bitmap>(BitmapFactory.decodeFile(file.getPath(), options));
+					mThumb = new SoftReference<Bitmap>(decode(file, options));
 									
 				} else if (len_kb <= 1000) {
 					options.inPurgeable = true;
+					Bitmap full = decode(file, null);
+					
+					if(full == null)
+						continue;
+					
 					mThumb = new SoftReference<Bitmap>(Bitmap.createScaledBitmap(
-							 						   BitmapFactory.decodeFile(file.getPath()),
+							 						   full,
 							 						   mWidth,
 							 						   mHeight,
 							 						   false));
@@ -112,6 +132,31 @@ public class ThumbnailCreator extends Thread {
 		}
 	}
 	
+	/*
+	 * Images inside an archive are decoded as they are inflated
+	 */
+	private Bitmap decode(File file, BitmapFactory.Options options) {
+		if(!(file instanceof ArchiveFile))
+			return BitmapFactory.decodeFile(file.getPath(), options);
+		
+		InputStream in = null;
+		
+		try {
+			in = ((ArchiveFile)file).openStream();
+			return BitmapFactory.decodeStream(in, null, options);
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			return null;
+			
+		} finally {
+			try {
+				if(in != null)
+					in.close();
+			} catch (IOException e) { }
+		}
+	}
+	
 	private boolean isImageFile(String file) {
 		String ext = file.substring(file.lastIndexOf(".") + 1);
 		
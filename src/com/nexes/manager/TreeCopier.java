@@ -0,0 +1,214 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * Copies a directory tree using a pool of worker threads. The calling
+ * thread walks the source tree and creates each destination directory
+ * before any of the files inside it are handed to the pool, so a worker
+ * never writes into a folder that doesn't exist yet.
+ * <br>
+ * <br>
+ * The pool's queue is bounded. When the workers fall behind, the walking
+ * thread copies the next file itself instead of queuing more work, which
+ * keeps memory flat no matter how many files the tree holds.
+ * <br>
+ * <br>
+ * Given a CopyVerifier, every file's checksum is taken as it is copied
+ * and the copy is handed to the verifier to be read back, so the source
+ * is only read once.
+ * <br>
+ * <br>
+ * If the copy is canceled through its ProgressTracker, a destination
+ * folder that the copy created is removed again. When copying into a
+ * folder that was already there only the half written file is removed.
+ *
+ * @author Joe Berria
+ */
+public class TreeCopier {
+	private static final int QUEUE_PER_THREAD = 32;
+
+	private final int mThreads;
+	private final WritePolicy mPolicy;
+	private final CopyVerifier mVerifier;
+	private final ProgressTracker mProgress;
+	private final ThreadLocal<FileCopier> mCopiers = new ThreadLocal<FileCopier>() {
+		@Override
+		protected FileCopier initialValue() {
+			return new FileCopier(mPolicy);
+		}
+	};
+
+	/**
+	 * @param threads	the number of threads that copy files at the same time
+	 */
+	public TreeCopier(int threads) {
+		this(threads, null);
+	}
+
+	/**
+	 * @param threads	the number of threads that copy files at the same time
+	 * @param progress	counts the bytes and files as they are copied, may be null
+	 */
+	public TreeCopier(int threads, ProgressTracker progress) {
+		this(threads, new WritePolicy(), progress);
+	}
+
+	/**
+	 * @param threads	the number of threads that copy files at the same time
+	 * @param policy	how the copies are written
+	 * @param progress	counts the bytes and files as they are copied, may be null
+	 */
+	public TreeCopier(int threads, WritePolicy policy, ProgressTracker progress) {
+		this(threads, policy, null, progress);
+	}
+
+	/**
+	 * @param threads	the number of threads that copy files at the same time
+	 * @param policy	how the copies are written
+	 * @param verifier	checks every copy against its source, may be null
+	 * @param progress	counts the bytes and files as they are copied, may be null
+	 */
+	public TreeCopier(int threads, WritePolicy policy, CopyVerifier verifier, 
+					  ProgressTracker progress) {
+		mThreads = Math.max(1, threads);
+		mPolicy = policy;
+		mVerifier = verifier;
+		mProgress = progress;
+	}
+
+	/**
+	 * Copies src, a file or a directory, into the directory destDir.
+	 *
+	 * @param src		the file or directory to copy
+	 * @param destDir	the directory to copy src into
+	 * @return			the combined result of every file in the tree
+	 */
+	public CopyResult copy(File src, File destDir) {
+		CopyResult result = new CopyResult();
+		File dest = new File(destDir, src.getName());
+		boolean created = !dest.exists();
+
+		if(src.isFile()) {
+			copy_file(src, dest, result);
+			return result;
+		}
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(mThreads, mThreads,
+										 0, TimeUnit.MILLISECONDS,
+										 new ArrayBlockingQueue<Runnable>(mThreads * QUEUE_PER_THREAD),
+										 new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			walk(src, dest, pool, result);
+
+		} finally {
+			pool.shutdown();
+
+			try {
+				while(!pool.awaitTermination(1, TimeUnit.SECONDS))
+					;
+			} catch (InterruptedException e) {
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if(is_canceled()) {
+			result.setCanceled();
+
+			if(created)
+				FileManager.deleteTree(dest);
+		}
+
+		return result;
+	}
+
+	/*
+	 * Creates dest if needed, then queues every file in src and walks
+	 * every directory in src.
+	 */
+	private void walk(File src, File dest, ThreadPoolExecutor pool, final CopyResult result) {
+		String[] list = src.list();
+
+		if(list == null) {
+			result.addFailure(src.getPath());
+			return;
+		}
+
+		if(dest.mkdir())
+			result.addDir();
+		else if(!dest.isDirectory()) {
+			result.addFailure(src.getPath());
+			return;
+		}
+
+		for(int i = 0; i < list.length && !is_canceled(); i++) {
+			final File child = new File(src, list[i]);
+			final File child_dest = new File(dest, list[i]);
+
+			if(child.isDirectory()) {
+				walk(child, child_dest, pool, result);
+
+			} else {
+				pool.execute(new Runnable() {
+					public void run() {
+						copy_file(child, child_dest, result);
+					}
+				});
+			}
+		}
+	}
+
+	private void copy_file(File src, File dest, CopyResult result) {
+		if(is_canceled())
+			return;
+
+		try {
+			CRC32 crc = mVerifier != null ? new CRC32() : null;
+
+			result.addFile(mCopiers.get().copy(src, dest, mProgress, crc));
+			if(mVerifier != null)
+				mVerifier.verify(dest, crc.getValue());
+
+			if(mProgress != null)
+				mProgress.addFile();
+
+		} catch (InterruptedIOException e) {
+			/* canceled, FileCopier has removed the partial file */
+
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			result.addFailure(src.getPath());
+		}
+	}
+
+	private boolean is_canceled() {
+		return mProgress != null && mProgress.isCanceled();
+	}
+}
@@ -0,0 +1,229 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.util.Log;
+
+/**
+ * Brings a copy of a file or folder up to date with its source, copying
+ * only what is new or has changed since the last sync.
+ * <br>
+ * <br>
+ * A file is taken to be unchanged when its copy has the same size and
+ * modification time. Copies are given the time of their source so the
+ * next sync can tell. FAT cards only keep the time to within two seconds
+ * so times that close are taken as equal. With checksum set, files that
+ * look unchanged are also read and compared, which is slower but catches
+ * edits that kept the size and time.
+ * <br>
+ * <br>
+ * Large files that already have a copy are updated with a DeltaCopier,
+ * which only writes the blocks that changed.
+ * <br>
+ * <br>
+ * The tree is walked first to work out what needs copying, so the
+ * ProgressTracker only counts the files that are really copied.
+ *
+ * @author Joe Berria
+ */
+public class TreeSync {
+	/* FAT keeps modification times in two second steps */
+	private static final long TIME_SLACK = 	2000;
+	private static final int BUFFER_SIZE = 	64 * 1024;
+	/* below this a changed file is just copied again */
+	private static final long DELTA_SIZE = 	1024 * 1024;
+
+	private final boolean mChecksum;
+	private final boolean mDelete;
+	private final ProgressTracker mProgress;
+	private final FileCopier mCopier;
+	private final DeltaCopier mDelta;
+	private byte[] mData;
+
+	/**
+	 * @param checksum	true to compare the contents of files that look unchanged
+	 * @param delete	true to remove what is in the copy but not in the source
+	 * @param progress	counts the bytes and files copied, may be null
+	 */
+	public TreeSync(boolean checksum, boolean delete, ProgressTracker progress) {
+		this(checksum, delete, new WritePolicy(), progress);
+	}
+
+	/**
+	 * @param checksum	true to compare the contents of files that look unchanged
+	 * @param delete	true to remove what is in the copy but not in the source
+	 * @param policy	how copied and updated files are written
+	 * @param progress	counts the bytes and files copied, may be null
+	 */
+	public TreeSync(boolean checksum, boolean delete, WritePolicy policy, ProgressTracker progress) {
+		mChecksum = checksum;
+		mDelete = delete;
+		mProgress = progress;
+		mCopier = new FileCopier(policy);
+		mDelta = new DeltaCopier(policy, progress);
+	}
+
+	/**
+	 * Brings destDir/src.getName() up to date with src.
+	 *
+	 * @param src		the file or folder to sync from
+	 * @param destDir	the folder holding, or that will hold, the copy
+	 * @return			what was copied, skipped, deleted and failed. The byte
+	 * 					count is only the bytes that were really copied.
+	 */
+	public CopyResult sync(File src, File destDir) {
+		CopyResult result = new CopyResult();
+		ArrayList<File> from = new ArrayList<File>();
+		ArrayList<File> to = new ArrayList<File>();
+
+		plan(src, new File(destDir, src.getName()), from, to, result);
+
+		if(mProgress != null)
+			for(File file : from)
+				mProgress.addTotal(file.length(), 1);
+
+		for(int i = 0; i < from.size() && !is_canceled(); i++)
+			copy_file(from.get(i), to.get(i), result);
+
+		if(is_canceled())
+			result.setCanceled();
+
+		return result;
+	}
+
+	/*
+	 * Walks src and dest side by side, creating folders and deleting
+	 * extra files as it goes, and lists every file that needs copying.
+	 */
+	private void plan(File src, File dest, ArrayList<File> from, ArrayList<File> to,
+					  CopyResult result) {
+		if(is_canceled())
+			return;
+
+		if(src.isFile()) {
+			if(dest.isDirectory()) {
+				if(!mDelete) {
+					result.addFailure(src.getPath());
+					return;
+				}
+				FileManager.deleteTree(dest);
+				result.addDeleted();
+			}
+
+			if(is_changed(src, dest)) {
+				from.add(src);
+				to.add(dest);
+			} else {
+				result.addSkipped();
+			}
+			return;
+		}
+
+		String[] list = src.list();
+
+		if(list == null) {
+			result.addFailure(src.getPath());
+			return;
+		}
+
+		if(dest.isFile() && mDelete && dest.delete())
+			result.addDeleted();
+
+		if(dest.mkdir())
+			result.addDir();
+		else if(!dest.isDirectory()) {
+			result.addFailure(src.getPath());
+			return;
+		}
+
+		if(mDelete) {
+			String[] dest_list = dest.list();
+			HashSet<String> names = new HashSet<String>();
+
+			for(int i = 0; i < list.length; i++)
+				names.add(list[i]);
+
+			if(dest_list != null) {
+				for(int i = 0; i < dest_list.length; i++) {
+					if(!names.contains(dest_list[i])) {
+						FileManager.deleteTree(new File(dest, dest_list[i]));
+						result.addDeleted();
+					}
+				}
+			}
+		}
+
+		for(int i = 0; i < list.length; i++)
+			plan(new File(src, list[i]), new File(dest, list[i]), from, to, result);
+	}
+
+	private boolean is_changed(File src, File dest) {
+		if(!dest.isFile() || dest.length() != src.length())
+			return true;
+
+		if(Math.abs(dest.lastModified() - src.lastModified()) > TIME_SLACK)
+			return true;
+
+		if(!mChecksum)
+			return false;
+
+		if(mData == null)
+			mData = new byte[BUFFER_SIZE];
+
+		try {
+			return CopyVerifier.checksum(src, mData) != CopyVerifier.checksum(dest, mData);
+
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			return true;
+		}
+	}
+
+	private void copy_file(File src, File dest, CopyResult result) {
+		try {
+			if(dest.isFile() && dest.length() >= DELTA_SIZE)
+				result.addFile(mDelta.copy(src, dest));
+			else
+				result.addFile(mCopier.copy(src, dest, mProgress));
+
+			dest.setLastModified(src.lastModified());
+
+			if(mProgress != null)
+				mProgress.addFile();
+
+		} catch (InterruptedIOException e) {
+			/* canceled. A new file is removed again, an updated one keeps
+			 * its old time so the next sync goes over it again */
+
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			result.addFailure(src.getPath());
+		}
+	}
+
+	private boolean is_canceled() {
+		return mProgress != null && mProgress.isCanceled();
+	}
+}
@@ -0,0 +1,294 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import android.util.Log;
+
+/**
+ * Decides how new files are written out, which matters most on SD cards.
+ * <br>
+ * <br>
+ * Data is written in large blocks that start on a multiple of the write
+ * size. If asked to, a file whose final size is known is set to that size
+ * before any data is written, so the file system can hand out the whole
+ * file at once instead of growing it a cluster at a time. That is off by
+ * default, since vfat fills a file grown this way with zeros first, which
+ * can write every byte twice on the cards it is meant to help. Once
+ * written a file can be synced to the card straight away, at the end of
+ * the batch it is part of, or left to the system.
+ * <br>
+ * <br>
+ * One policy may be shared by several threads.
+ *
+ * @author Joe Berria
+ */
+public class WritePolicy {
+	/**
+	 * files are left for the system to write out when it likes
+	 */
+	public static final int SYNC_NONE = 	0;
+	/**
+	 * every file is synced as soon as it is closed
+	 */
+	public static final int SYNC_FILE = 	1;
+	/**
+	 * files are synced together when finishBatch is called
+	 */
+	public static final int SYNC_BATCH = 	2;
+
+	private static final int WRITE_SIZE = 	1024 * 1024;
+	private static final int MIN_WRITE = 	4 * 1024;
+
+	private int mWriteSize = WRITE_SIZE;
+	private int mSync = SYNC_NONE;
+	private boolean mPreallocate = false;
+	private final ArrayList<File> mPending = new ArrayList<File>();
+
+	/**
+	 * @param size	the size of each write, rounded down to a multiple of 4 Kb
+	 */
+	public synchronized void setWriteSize(int size) {
+		mWriteSize = Math.max(MIN_WRITE, size - size % MIN_WRITE);
+	}
+
+	public synchronized int getWriteSize() {
+		return mWriteSize;
+	}
+
+	/**
+	 * @param sync	SYNC_NONE, SYNC_FILE or SYNC_BATCH
+	 */
+	public synchronized void setSync(int sync) {
+		mSync = sync;
+	}
+
+	public synchronized int getSync() {
+		return mSync;
+	}
+
+	/**
+	 * @param preallocate	true to set a file to its final size before writing it,
+	 * 						false by default
+	 */
+	public synchronized void setPreallocate(boolean preallocate) {
+		mPreallocate = preallocate;
+	}
+
+	public synchronized boolean getPreallocate() {
+		return mPreallocate;
+	}
+
+	/**
+	 * Opens dest for writing from its start.
+	 *
+	 * @param dest	the file to write
+	 * @param size	how long dest will be, or -1 if not known
+	 * @return		the open file, hand it to close when done
+	 * @throws IOException
+	 */
+	public RandomAccessFile open(File dest, long size) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(dest, "rw");
+
+		try {
+			if(size >= 0 && getPreallocate())
+				out.setLength(size);
+
+		} catch (IOException e) {
+			/* most likely the card is too full, which the writes
+			 * will find out for themselves */
+			Log.e("IOException", e.getMessage());
+		}
+
+		return out;
+	}
+
+	/**
+	 * Cuts dest to the length that was written, closes it and syncs it
+	 * as the policy says.
+	 *
+	 * @param out		the file returned by open
+	 * @param dest		the file that was written
+	 * @param length	the number of bytes written
+	 * @throws IOException
+	 */
+	public void close(RandomAccessFile out, File dest, long length) throws IOException {
+		try {
+			if(out.length() != length)
+				out.setLength(length);
+
+			int sync = getSync();
+
+			if(sync == SYNC_FILE)
+				out.getFD().sync();
+			else if(sync == SYNC_BATCH)
+				synchronized (this) {
+					mPending.add(dest);
+				}
+
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Opens dest as a stream that writes in blocks of the write size. A
+	 * file known to be smaller gets a block just big enough for it, so
+	 * writing many small files doesn't take a full block each.
+	 *
+	 * @param dest	the file to write
+	 * @param size	how long dest will be, or -1 if not known
+	 * @return		the stream, closing it closes the file as close does
+	 * @throws IOException
+	 */
+	public OutputStream openStream(File dest, long size) throws IOException {
+		int block = getWriteSize();
+
+		if(size >= 0 && size < block)
+			block = (int)Math.max(MIN_WRITE, (size + MIN_WRITE - 1) / MIN_WRITE * MIN_WRITE);
+
+		return new BlockStream(dest, open(dest, size), block, 0);
+	}
+
+	/**
+	 * Opens dest as a stream that writes in blocks of the write size,
+	 * after what is already in it. The first block is cut short so the
+	 * ones after it start on a multiple of the write size.
+	 *
+	 * @param dest	the file to add to
+	 * @return		the stream, closing it closes the file as close does
+	 * @throws IOException
+	 */
+	public OutputStream openAppend(File dest) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(dest, "rw");
+		long length;
+
+		try {
+			length = out.length();
+			out.seek(length);
+
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+
+		return new BlockStream(dest, out, getWriteSize(), length);
+	}
+
+	/**
+	 * Syncs every file closed since the last call, when the policy is
+	 * SYNC_BATCH. Call this when an operation is over.
+	 */
+	public void finishBatch() {
+		ArrayList<File> pending;
+
+		synchronized (this) {
+			if(mPending.size() == 0)
+				return;
+
+			pending = new ArrayList<File>(mPending);
+			mPending.clear();
+		}
+
+		for(File file : pending) {
+			try {
+				RandomAccessFile out = new RandomAccessFile(file, "rw");
+
+				try {
+					out.getFD().sync();
+				} finally {
+					out.close();
+				}
+
+			} catch (IOException e) {
+				Log.e("IOException", e.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Collects writes into one block and writes it when it is full, so
+	 * every write but the last starts on a multiple of the block size.
+	 */
+	private class BlockStream extends OutputStream {
+		private final File mDest;
+		private final RandomAccessFile mOut;
+		private final byte[] mBlock;
+		private int mCount = 0;
+		private int mLimit;
+		private long mLength;
+		private boolean mClosed = false;
+
+		private BlockStream(File dest, RandomAccessFile out, int size, long start) {
+			mDest = dest;
+			mOut = out;
+			mBlock = new byte[size];
+			mLength = start;
+			mLimit = size - (int)(start % size);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(mCount == mLimit)
+				flush_block();
+
+			mBlock[mCount++] = (byte)b;
+		}
+
+		@Override
+		public void write(byte[] data, int off, int len) throws IOException {
+			while(len > 0) {
+				if(mCount == mLimit)
+					flush_block();
+
+				int count = Math.min(len, mLimit - mCount);
+
+				System.arraycopy(data, off, mBlock, mCount, count);
+				mCount += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(mClosed)
+				return;
+
+			mClosed = true;
+			try {
+				flush_block();
+			} finally {
+				WritePolicy.this.close(mOut, mDest, mLength);
+			}
+		}
+
+		private void flush_block() throws IOException {
+			mOut.write(mBlock, 0, mCount);
+			mLength += mCount;
+			mCount = 0;
+			mLimit = mBlock.length;
+		}
+	}
+}
@@ -0,0 +1,502 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import android.util.Log;
+
+/**
+ * Extracts a whole zip file using a pool of worker threads.
+ * <br>
+ * <br>
+ * The central directory is read first and every folder the archive needs
+ * is created once, parents before children, before any entry is handed
+ * to the pool. Each worker then reads the entries it is given through a
+ * channel of its own, starting at the offset the central directory gives,
+ * so the workers never wait on each other to seek.
+ * <br>
+ * <br>
+ * Entries are inflated as they are read into buffers that belong to the
+ * worker, so memory does not grow with the size of an entry. The pool's
+ * queue is bounded and when the workers fall behind the calling thread
+ * extracts the next entry itself, which bounds the memory in flight to
+ * a few buffers per thread no matter how many entries the archive holds.
+ * <br>
+ * <br>
+ * Entries whose names would end up outside the destination folder are
+ * refused, as are encrypted entries and compression methods other than
+ * stored and deflated. The checksum of every entry is checked.
+ * <br>
+ * <br>
+ * An archive can also be tested without writing anything. Every entry is
+ * then inflated the same way, on the same pool, and the data thrown away
+ * once its checksum has been worked out, so only the CPU limits how fast
+ * it goes.
+ *
+ * @author Joe Berria
+ */
+public class ZipExtractor {
+	private static final int QUEUE_PER_THREAD = 32;
+	private static final int BUFFER_SIZE = 		64 * 1024;
+	
+	private final WritePolicy mPolicy;
+	private final int mThreads;
+	private final ProgressTracker mProgress;
+	private final ThreadLocal<byte[]> mBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE * 2];
+		}
+	};
+	
+	/**
+	 * @param policy	how the extracted files are written
+	 * @param threads	the number of threads that extract entries at the same time
+	 * @param progress	counts the bytes and files as they are extracted, may be null
+	 */
+	public ZipExtractor(WritePolicy policy, int threads, ProgressTracker progress) {
+		mPolicy = policy;
+		mThreads = Math.max(1, threads);
+		mProgress = progress;
+	}
+	
+	/**
+	 * Extracts every entry of zip into destDir, keeping the folders the 
+	 * entries have inside the archive. destDir must exist.
+	 * 
+	 * @param zip		the zip file
+	 * @param destDir	the folder to extract into
+	 * @return			the files and folders created, and the entries that 
+	 * 					couldn't be extracted
+	 * @throws IOException	if the central directory of zip can't be read
+	 */
+	public CopyResult extract(File zip, File destDir) throws IOException {
+		return run(zip, destDir, null);
+	}
+	
+	/**
+	 * Extracts only the named entries of zip into destDir, keeping the 
+	 * folders they have inside the archive. destDir must exist.
+	 * 
+	 * @param zip		the zip file
+	 * @param destDir	the folder to extract into
+	 * @param names		the names of the file entries to extract
+	 * @return			the files and folders created, and the entries that 
+	 * 					couldn't be extracted. Names not in zip are left out.
+	 * @throws IOException	if the central directory of zip can't be read
+	 */
+	public CopyResult extract(File zip, File destDir, Set<String> names) throws IOException {
+		return run(zip, destDir, names);
+	}
+	
+	/**
+	 * Inflates every entry of zip without writing it anywhere and checks 
+	 * its size and checksum against the central directory.
+	 * 
+	 * @param zip	the zip file
+	 * @return		the entries that are intact as verified, the damaged 
+	 * 				ones as mismatches, and as failures the ones that 
+	 * 				couldn't be tested, like encrypted entries
+	 * @throws IOException	if the central directory of zip can't be read
+	 */
+	public CopyResult test(File zip) throws IOException {
+		return run(zip, null, null);
+	}
+	
+	/*
+	 * Extracts zip, or only the entries in names if that isn't null, into 
+	 * destDir, or only tests them if destDir is null
+	 */
+	private CopyResult run(final File zip, File destDir, Set<String> names) throws IOException {
+		final CopyResult result = new CopyResult();
+		final ArrayList<FileChannel> open = new ArrayList<FileChannel>();
+		final ThreadLocal<FileChannel> channels = new ThreadLocal<FileChannel>() {
+			@Override
+			protected FileChannel initialValue() {
+				try {
+					FileChannel channel = new RandomAccessFile(zip, "r").getChannel();
+					
+					synchronized (open) {
+						open.add(channel);
+					}
+					return channel;
+					
+				} catch (IOException e) {
+					Log.e("IOException", e.getMessage());
+					return null;
+				}
+			}
+		};
+		
+		FileChannel channel = channels.get();
+		
+		if(channel == null)
+			throw new IOException("Can't open " + zip.getPath());
+		
+		ThreadPoolExecutor pool = null;
+		
+		try {
+			CentralDirectory directory = new CentralDirectory(channel);
+			int[] files = new int[directory.size()];
+			int count = pick_files(directory, names, destDir, files, result);
+			
+			if(mProgress != null) {
+				long total = 0;
+				
+				for(int i = 0; i < count; i++)
+					total += directory.getEntry(files[i]).size;
+				mProgress.addTotal(total, count);
+			}
+			
+			pool = new ThreadPoolExecutor(mThreads, mThreads, 0, TimeUnit.MILLISECONDS,
+										  new ArrayBlockingQueue<Runnable>(mThreads * QUEUE_PER_THREAD),
+										  new ThreadPoolExecutor.CallerRunsPolicy());
+			
+			for(int i = 0; i < count && !is_canceled(); i++) {
+				final CentralDirectory.Entry entry = directory.getEntry(files[i]);
+				final File dest = destDir == null ? null : new File(destDir, entry.name);
+				
+				pool.execute(new Runnable() {
+					public void run() {
+						if(dest == null)
+							test_entry(channels.get(), entry, result);
+						else
+							extract_entry(channels.get(), entry, dest, result);
+					}
+				});
+			}
+			
+		} finally {
+			if(pool != null) {
+				pool.shutdown();
+				
+				try {
+					while(!pool.awaitTermination(1, TimeUnit.SECONDS))
+						;
+				} catch (InterruptedException e) {
+					pool.shutdownNow();
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+			synchronized (open) {
+				for(FileChannel c : open) {
+					try {
+						c.close();
+					} catch (IOException e) { }
+				}
+			}
+		}
+		
+		if(is_canceled())
+			result.setCanceled();
+		
+		return result;
+	}
+	
+	/*
+	 * Collects the index of every file entry to extract, only those in
+	 * names if that isn't null, and returns how many there are. Unless 
+	 * dir is null every folder they need is created under it, each one 
+	 * once.
+	 */
+	private int pick_files(CentralDirectory directory, Set<String> names, File dir, 
+						   int[] files, CopyResult result) {
+		HashSet<String> dirs = new HashSet<String>();
+		int count = 0;
+		
+		for(int i = 0; i < directory.size(); i++) {
+			String entry_name = directory.getName(i);
+			boolean folder = entry_name.endsWith("/");
+			String name = folder ? entry_name.substring(0, entry_name.length() - 1) : entry_name;
+			
+			if(names != null && (folder || !names.contains(entry_name)))
+				continue;
+			
+			if(dir == null) {
+				if(!folder)
+					files[count++] = i;
+				continue;
+			}
+			
+			if(!ZipIndex.isValidPath(name)) {
+				result.addFailure(entry_name);
+				continue;
+			}
+			
+			if(!folder)
+				files[count++] = i;
+			
+			/* every folder above this entry, and the entry itself if
+			 * it is a folder. Once one is known so are those above it */
+			int end = folder ? name.length() : name.lastIndexOf('/');
+			
+			while(end > 0 && dirs.add(name.substring(0, end)))
+				end = name.lastIndexOf('/', end - 1);
+		}
+		
+		if(dir == null)
+			return count;
+		
+		/* a parent sorts before its children */
+		ArrayList<String> sorted = new ArrayList<String>(dirs);
+		Collections.sort(sorted);
+		
+		for(String name : sorted) {
+			File folder = new File(dir, name);
+			
+			if(folder.mkdir())
+				result.addDir();
+			else if(!folder.isDirectory())
+				result.addFailure(name + "/");
+		}
+		
+		return count;
+	}
+	
+	/*
+	 * Done on a worker thread
+	 */
+	private void extract_entry(FileChannel channel, CentralDirectory.Entry entry, File dest,
+							   CopyResult result) {
+		RandomAccessFile out = null;
+		
+		if(is_canceled())
+			return;
+		
+		try {
+			check_entry(channel, entry);
+			
+			out = mPolicy.open(dest, entry.size);
+			long length = write_entry(channel, entry, out);
+			
+			RandomAccessFile done = out;
+			out = null;
+			mPolicy.close(done, dest, length);
+			
+			result.addFile(length);
+			if(mProgress != null)
+				mProgress.addFile();
+			
+		} catch (InterruptedIOException e) {
+			/* canceled */
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			result.addFailure(entry.name);
+			
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) { }
+				dest.delete();
+			}
+		}
+	}
+	
+	/*
+	 * Done on a worker thread
+	 */
+	private void test_entry(FileChannel channel, CentralDirectory.Entry entry, CopyResult result) {
+		if(is_canceled())
+			return;
+		
+		try {
+			check_entry(channel, entry);
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			result.addFailure(entry.name);
+			return;
+		}
+		
+		try {
+			result.addFile(write_entry(channel, entry, null));
+			result.addVerified();
+			if(mProgress != null)
+				mProgress.addFile();
+			
+		} catch (InterruptedIOException e) {
+			/* canceled */
+			
+		} catch (ZipException e) {
+			Log.e("ZipException", e.getMessage());
+			result.addMismatch(entry.name);
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+			result.addFailure(entry.name);
+		}
+	}
+	
+	/*
+	 * Throws if entry is one this class can't read
+	 */
+	private static void check_entry(FileChannel channel, CentralDirectory.Entry entry) 
+																throws IOException {
+		if(channel == null)
+			throw new IOException("Can't open zip file");
+		if((entry.flags & CentralDirectory.FLAG_ENCRYPTED) != 0)
+			throw new ZipException(entry.name + " is encrypted");
+		if(entry.method != CentralDirectory.METHOD_STORED && 
+		   entry.method != CentralDirectory.METHOD_DEFLATED)
+			throw new ZipException(entry.name + " uses an unknown compression method");
+	}
+	
+	/*
+	 * Reads the data of entry, inflating it if need be, into out and 
+	 * checks its size and checksum. Returns the number of bytes written.
+	 * out may be null, the data is then only checked.
+	 */
+	private long write_entry(FileChannel channel, CentralDirectory.Entry entry, 
+							 RandomAccessFile out) throws IOException {
+		long pos = CentralDirectory.dataStart(channel, entry);
+		byte[] data = mBuffers.get();
+		CRC32 crc = new CRC32();
+		long length;
+		
+		if(entry.method == CentralDirectory.METHOD_STORED)
+			length = copy_stored(channel, pos, entry, out, data, crc);
+		else
+			length = inflate(channel, pos, entry, out, data, crc);
+		
+		if(length != entry.size || crc.getValue() != entry.crc)
+			throw new ZipException(entry.name + " is damaged, its checksum doesn't match");
+		
+		return length;
+	}
+	
+	/*
+	 * The first half of data is read into, the second half written from
+	 */
+	private long copy_stored(FileChannel channel, long pos, CentralDirectory.Entry entry,
+							 RandomAccessFile out, byte[] data, CRC32 crc) throws IOException {
+		long remaining = entry.compressed;
+		
+		while(remaining > 0) {
+			int count = (int)Math.min(BUFFER_SIZE, remaining);
+			
+			read(channel, pos, data, BUFFER_SIZE, count, entry);
+			pos += count;
+			remaining -= count;
+			flush(out, data, count, crc);
+		}
+		
+		return entry.compressed;
+	}
+	
+	private long inflate(FileChannel channel, long pos, CentralDirectory.Entry entry,
+						 RandomAccessFile out, byte[] data, CRC32 crc) throws IOException {
+		Inflater inflater = new Inflater(true);
+		long remaining = entry.compressed;
+		long length = 0;
+		boolean padded = false;
+		int count = 0;
+		
+		try {
+			while(!inflater.finished()) {
+				if(inflater.needsInput()) {
+					if(remaining > 0) {
+						int read = (int)Math.min(BUFFER_SIZE, remaining);
+						
+						read(channel, pos, data, 0, read, entry);
+						pos += read;
+						remaining -= read;
+						inflater.setInput(data, 0, read);
+						
+					} else if(!padded) {
+						/* the inflater may want one byte past the end
+						 * of the data before it says it is finished */
+						data[0] = 0;
+						inflater.setInput(data, 0, 1);
+						padded = true;
+						
+					} else {
+						throw new ZipException(entry.name + " is cut short");
+					}
+				}
+				
+				try {
+					int inflated = inflater.inflate(data, BUFFER_SIZE + count, BUFFER_SIZE - count);
+					
+					if(inflated == 0 && inflater.needsDictionary())
+						throw new ZipException(entry.name + " needs a dictionary");
+					count += inflated;
+					
+				} catch (DataFormatException e) {
+					throw new ZipException(entry.name + ": " + e.getMessage());
+				}
+				
+				if(count == BUFFER_SIZE) {
+					flush(out, data, count, crc);
+					length += count;
+					count = 0;
+				}
+			}
+			
+			flush(out, data, count, crc);
+			return length + count;
+			
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static void read(FileChannel channel, long pos, byte[] data, int off, int length,
+							 CentralDirectory.Entry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data, off, length);
+		
+		while(buffer.hasRemaining())
+			if(channel.read(buffer, pos + buffer.position() - off) == -1)
+				throw new ZipException(entry.name + " is cut short");
+	}
+	
+	private void flush(RandomAccessFile out, byte[] data, int count, CRC32 crc) throws IOException {
+		crc.update(data, BUFFER_SIZE, count);
+		if(out != null)
+			out.write(data, BUFFER_SIZE, count);
+		
+		if(mProgress != null) {
+			mProgress.addBytes(count);
+			mProgress.checkCanceled();
+		}
+	}
+	
+	private boolean is_canceled() {
+		return mProgress != null && mProgress.isCanceled();
+	}
+}
@@ -0,0 +1,477 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import android.util.Log;
+
+/**
+ * The folders and files of a zip archive, read once from its central
+ * directory so the archive can be browsed like a folder on the card.
+ * <br>
+ * <br>
+ * Folders are named by their path inside the archive without a trailing
+ * slash, the top of the archive is "". Archives often leave out the
+ * entries for their folders, so every folder above a file is made up as
+ * needed. Entries with empty, . or .. parts in their names are left out,
+ * they could not be shown as a path anyway.
+ * <br>
+ * <br>
+ * Only the folders are kept as strings. A file is the number of its
+ * record in the CentralDirectory, which stays mapped, and the files of
+ * each folder are kept together in int arrays ordered by the hash of 
+ * their names, so finding one decodes a single name. An archive of 
+ * hundreds of thousands of files, Zip64 ones included, is browsed in a
+ * few megabytes.
+ * <br>
+ * <br>
+ * The archive is kept open until close is called, so entries can be read
+ * without going through the central directory again. Once built an index
+ * is only read, so it may be shared by several threads.
+ *
+ * @author Joe Berria
+ */
+public class ZipIndex {
+	private static final int BUFFER_SIZE = 16 * 1024;
+	
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final CentralDirectory mDir;
+	private final long mLength;
+	private final long mModified;
+	/* folder ids by path, the top is 0 */
+	private final HashMap<String, Integer> mDirIds = new HashMap<String, Integer>();
+	private final ArrayList<String> mDirPaths = new ArrayList<String>();
+	private int[] mDirParent = new int[16];
+	/* the folders in folder d are mSubdirs[mSubdirStart[d]] up to mSubdirs[mSubdirStart[d + 1]] */
+	private int[] mSubdirStart;
+	private int[] mSubdirs;
+	/* the same for the files, as records of the central directory with
+	 * the hashes of their names, in order of the hash */
+	private int[] mFileStart;
+	private int[] mFiles;
+	private int[] mFileHash;
+	
+	/**
+	 * Reads the central directory of file.
+	 * 
+	 * @param file	the zip file
+	 * @throws IOException
+	 */
+	public ZipIndex(File file) throws IOException {
+		mLength = file.length();
+		mModified = file.lastModified();
+		mFile = new RandomAccessFile(file, "r");
+		
+		try {
+			mChannel = mFile.getChannel();
+			mDir = new CentralDirectory(mChannel);
+			
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+		
+		add_dir("");
+		index_dirs();
+		index_files();
+	}
+	
+	/**
+	 * @param file	the zip file this index was read from
+	 * @return		false if file has been changed since
+	 */
+	public boolean isCurrent(File file) {
+		return file.length() == mLength && file.lastModified() == mModified;
+	}
+	
+	public boolean isDirectory(String path) {
+		return mDirIds.containsKey(path);
+	}
+	
+	/**
+	 * @param path	the path of a file inside the archive
+	 * @return		its entry, or null if there is no such file
+	 */
+	public CentralDirectory.Entry getEntry(String path) {
+		return getEntry(findFile(path));
+	}
+	
+	/**
+	 * @param path	the path of a folder inside the archive
+	 * @return		the names of the files and folders in it, or null 
+	 * 				if there is no such folder
+	 */
+	public String[] list(String path) {
+		Integer dir = mDirIds.get(path);
+		
+		if(dir == null)
+			return null;
+		
+		int first_dir = mSubdirStart[dir];
+		int dirs = mSubdirStart[dir + 1] - first_dir;
+		int first_file = mFileStart[dir];
+		int files = mFileStart[dir + 1] - first_file;
+		String[] names = new String[dirs + files];
+		
+		for(int i = 0; i < dirs; i++)
+			names[i] = leaf(mDirPaths.get(mSubdirs[first_dir + i]));
+		
+		/* files in the order of the central directory */
+		int[] records = new int[files];
+		
+		System.arraycopy(mFiles, first_file, records, 0, files);
+		Arrays.sort(records);
+		for(int i = 0; i < files; i++)
+			names[dirs + i] = leaf(mDir.getName(records[i]));
+		
+		return names;
+	}
+	
+	/**
+	 * Inflates the file at path as it is read.
+	 * 
+	 * @param path	the path of a file inside the archive
+	 * @return		the contents of the file
+	 * @throws IOException
+	 */
+	public InputStream open(String path) throws IOException {
+		int record = findFile(path);
+		
+		if(record < 0)
+			throw new IOException("No entry " + path);
+		
+		CentralDirectory.Entry entry = mDir.getEntry(record);
+		
+		if((entry.flags & CentralDirectory.FLAG_ENCRYPTED) != 0)
+			throw new ZipException(path + " is encrypted");
+		
+		long start = CentralDirectory.dataStart(mChannel, entry);
+		
+		if(entry.method == CentralDirectory.METHOD_STORED)
+			return new EntryStream(mChannel, start, entry.compressed, false);
+		
+		if(entry.method != CentralDirectory.METHOD_DEFLATED)
+			throw new ZipException(path + " uses an unknown compression method");
+		
+		final Inflater inflater = new Inflater(true);
+		
+		return new InflaterInputStream(new EntryStream(mChannel, start, entry.compressed, true), 
+									   inflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+		};
+	}
+	
+	public void close() {
+		try {
+			mFile.close();
+		} catch (IOException e) { }
+	}
+	
+	/**
+	 * @param dir	the path of a folder inside the archive
+	 * @param name	the name of something in that folder
+	 * @return		the path of name inside the archive
+	 */
+	public static String child(String dir, String name) {
+		return dir.length() == 0 ? name : dir + "/" + name;
+	}
+	
+	/*
+	 * The record of the file at path in the central directory, or -1 
+	 * if there is no such file
+	 */
+	int findFile(String path) {
+		Integer dir = mDirIds.get(parent(path));
+		
+		if(dir == null)
+			return -1;
+		
+		int hash = leaf(path).hashCode();
+		int end = mFileStart[dir + 1];
+		int lo = mFileStart[dir];
+		int hi = end;
+		
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			
+			if(mFileHash[mid] < hash)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		for(; lo < end && mFileHash[lo] == hash; lo++)
+			if(mDir.getName(mFiles[lo]).equals(path))
+				return mFiles[lo];
+		
+		return -1;
+	}
+	
+	/*
+	 * The entry of a record findFile returned, null for -1
+	 */
+	CentralDirectory.Entry getEntry(int record) {
+		if(record < 0)
+			return null;
+		
+		try {
+			return mDir.getEntry(record);
+			
+		} catch (ZipException e) {
+			Log.e("ZipException", e.getMessage());
+			return null;
+		}
+	}
+	
+	/*
+	 * every folder there is, named by a folder entry or above a file
+	 */
+	private void index_dirs() {
+		int count = mDir.size();
+		
+		for(int i = 0; i < count; i++) {
+			String name = mDir.getName(i);
+			boolean dir = name.endsWith("/");
+			
+			if(dir)
+				name = name.substring(0, name.length() - 1);
+			
+			if(isValidPath(name))
+				add_dir(dir ? name : parent(name));
+		}
+		
+		int dirs = mDirPaths.size();
+		int[] next = new int[dirs];
+		
+		mSubdirStart = new int[dirs + 1];
+		mSubdirs = new int[dirs - 1];
+		
+		for(int d = 1; d < dirs; d++)
+			mSubdirStart[mDirParent[d] + 1]++;
+		for(int d = 0; d < dirs; d++) {
+			mSubdirStart[d + 1] += mSubdirStart[d];
+			next[d] = mSubdirStart[d];
+		}
+		for(int d = 1; d < dirs; d++)
+			mSubdirs[next[mDirParent[d]]++] = d;
+	}
+	
+	/*
+	 * every file that isn't also a folder, the first of a name wins
+	 */
+	private void index_files() {
+		int count = mDir.size();
+		int dirs = mDirPaths.size();
+		int[] parents = new int[count];
+		long[] keys = new long[count];
+		int files = 0;
+		
+		for(int i = 0; i < count; i++) {
+			String name = mDir.getName(i);
+			
+			if(name.endsWith("/") || !isValidPath(name) || mDirIds.containsKey(name))
+				continue;
+			
+			parents[files] = mDirIds.get(parent(name));
+			keys[files] = (long)leaf(name).hashCode() << 32 | i;
+			files++;
+		}
+		
+		/* the files of each folder together, then in order of hash */
+		long[] sorted = new long[files];
+		int[] start = new int[dirs + 1];
+		int[] next = new int[dirs];
+		
+		for(int f = 0; f < files; f++)
+			start[parents[f] + 1]++;
+		for(int d = 0; d < dirs; d++) {
+			start[d + 1] += start[d];
+			next[d] = start[d];
+		}
+		for(int f = 0; f < files; f++)
+			sorted[next[parents[f]]++] = keys[f];
+		
+		parents = null;
+		keys = null;
+		mFiles = new int[files];
+		mFileHash = new int[files];
+		mFileStart = new int[dirs + 1];
+		
+		int kept = 0;
+		
+		for(int d = 0; d < dirs; d++) {
+			Arrays.sort(sorted, start[d], start[d + 1]);
+			mFileStart[d] = kept;
+			
+			for(int k = start[d]; k < start[d + 1]; k++) {
+				int hash = (int)(sorted[k] >> 32);
+				int record = (int)sorted[k];
+				
+				if(!is_repeat(record, hash, mFileStart[d], kept)) {
+					mFiles[kept] = record;
+					mFileHash[kept] = hash;
+					kept++;
+				}
+			}
+		}
+		mFileStart[dirs] = kept;
+	}
+	
+	/*
+	 * true if a file kept since first has the same name as record, the
+	 * ones with the same hash are just before kept
+	 */
+	private boolean is_repeat(int record, int hash, int first, int kept) {
+		String name = null;
+		
+		for(int j = kept - 1; j >= first && mFileHash[j] == hash; j--) {
+			if(name == null)
+				name = mDir.getName(record);
+			if(mDir.getName(mFiles[j]).equals(name))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private void add_dir(String path) {
+		if(mDirIds.containsKey(path))
+			return;
+		
+		int parent = -1;
+		
+		if(path.length() > 0) {
+			add_dir(parent(path));
+			parent = mDirIds.get(parent(path));
+		}
+		
+		int id = mDirPaths.size();
+		
+		if(id == mDirParent.length) {
+			int[] grown = new int[id * 2];
+			
+			System.arraycopy(mDirParent, 0, grown, 0, id);
+			mDirParent = grown;
+		}
+		
+		mDirIds.put(path, id);
+		mDirPaths.add(path);
+		mDirParent[id] = parent;
+	}
+	
+	private static String parent(String path) {
+		int index = path.lastIndexOf('/');
+		
+		return index < 0 ? "" : path.substring(0, index);
+	}
+	
+	private static String leaf(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+	
+	/*
+	 * false for names with empty, . or .. parts, which can't be shown as
+	 * a path and could point outside of the folder they are extracted to
+	 */
+	static boolean isValidPath(String name) {
+		if(name.length() == 0)
+			return false;
+		
+		String[] parts = name.split("/", -1);
+		
+		for(int i = 0; i < parts.length; i++)
+			if(parts[i].length() == 0 || parts[i].equals(".") || parts[i].equals(".."))
+				return false;
+		
+		return true;
+	}
+	
+	/*
+	 * The stored or deflated data of one entry, read at its place in the 
+	 * archive so several may be open at once. Deflated data gets one more
+	 * zero byte at its end, the inflater may want it before it finishes.
+	 */
+	private static class EntryStream extends InputStream {
+		private final FileChannel mChannel;
+		private long mPos;
+		private long mRemaining;
+		private boolean mPad;
+		
+		EntryStream(FileChannel channel, long start, long length, boolean pad) {
+			mChannel = channel;
+			mPos = start;
+			mRemaining = length;
+			mPad = pad;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] data, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+			
+			if(mRemaining == 0) {
+				if(!mPad)
+					return -1;
+				
+				mPad = false;
+				data[off] = 0;
+				return 1;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.wrap(data, off, (int)Math.min(len, mRemaining));
+			int read = mChannel.read(buffer, mPos);
+			
+			if(read == -1)
+				throw new ZipException("Zip file is cut short");
+			
+			mPos += read;
+			mRemaining -= read;
+			return read;
+		}
+		
+		@Override
+		public int available() {
+			return (int)Math.min(Integer.MAX_VALUE, mRemaining);
+		}
+	}
+}
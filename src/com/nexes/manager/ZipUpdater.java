@@ -0,0 +1,345 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.nexes.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * Brings a zip file up to date with the folder it was made from, only
+ * compressing the files that are new or have changed.
+ * <br>
+ * <br>
+ * The central directory of the archive is read and every file of the 
+ * folder is looked up in it. A file with the same size and modification 
+ * time as its entry is taken to be unchanged. When only the time differs 
+ * the file is read and its checksum compared, so a file that was touched 
+ * but not changed is not compressed again either.
+ * <br>
+ * <br>
+ * Unchanged entries stay where they are. New and changed files are 
+ * compressed by a ZipWriter onto the end of the archive, followed by a 
+ * new central directory that lists them along with the entries kept. The
+ * time this takes depends on what changed, not on the size of the archive.
+ * If the update fails or is canceled the archive is cut back to its old 
+ * length, which leaves it as it was.
+ * <br>
+ * <br>
+ * Entries that were replaced or removed, and the old central directory, 
+ * are left behind as dead space. Once that is more than a quarter of the
+ * archive it is written out again in full, copying the compressed data of
+ * the unchanged entries as it is rather than inflating and deflating it.
+ *
+ * @author Joe Berria
+ */
+public class ZipUpdater {
+	/* the share of dead space, in percent, that has the archive rewritten */
+	private static final int MAX_WASTE = 	25;
+	private static final int BUFFER_SIZE = 	64 * 1024;
+	
+	private final WritePolicy mPolicy;
+	private final CompressionPolicy mCompression;
+	private final File mTempDir;
+	private final int mThreads;
+	private final ProgressTracker mProgress;
+	private byte[] mData;
+	
+	/**
+	 * @param policy		how the archive is written
+	 * @param compression	which files are deflated and how hard
+	 * @param threads		the number of threads that compress at the same time
+	 * @param progress		counts the bytes and files compressed, may be null
+	 */
+	public ZipUpdater(WritePolicy policy, CompressionPolicy compression, int threads, 
+					  ProgressTracker progress) {
+		this(policy, compression, null, threads, progress);
+	}
+	
+	/**
+	 * @param policy		how the archive is written
+	 * @param compression	which files are deflated and how hard
+	 * @param tempDir		where large entries are compressed to while they 
+	 * 						wait, or null to deflate them straight into the 
+	 * 						archive, see ZipWriter
+	 * @param threads		the number of threads that compress at the same time
+	 * @param progress		counts the bytes and files compressed, may be null
+	 */
+	public ZipUpdater(WritePolicy policy, CompressionPolicy compression, File tempDir, 
+					  int threads, ProgressTracker progress) {
+		mPolicy = policy;
+		mCompression = compression;
+		mTempDir = tempDir;
+		mThreads = threads;
+		mProgress = progress;
+	}
+	
+	/**
+	 * Brings zip up to date with the contents of dir. Entries are named 
+	 * by their path inside dir, as FileManager.createZipFile names them.
+	 * 
+	 * @param dir	the folder the archive was made from
+	 * @param zip	the archive to update, it is left out if it is inside dir
+	 * @return		the files compressed, the entries kept as they were and 
+	 * 				the entries removed
+	 * @throws IOException	if zip can't be read or written, it is then left 
+	 * 						as it was. A cancel ends up here too.
+	 */
+	public CopyResult update(File dir, File zip) throws IOException {
+		CopyResult result = new CopyResult();
+		ArrayList<File> files = new ArrayList<File>();
+		ArrayList<String> names = new ArrayList<String>();
+		RandomAccessFile archive = new RandomAccessFile(zip, "r");
+		
+		try {
+			FileChannel channel = archive.getChannel();
+			CentralDirectory directory = new CentralDirectory(channel);
+			HashMap<String, CentralDirectory.Entry> old = new HashMap<String, CentralDirectory.Entry>();
+			
+			for(int i = 0; i < directory.size(); i++) {
+				CentralDirectory.Entry entry = directory.getEntry(i);
+				old.put(entry.getName(), entry);
+			}
+			
+			String[] list = dir.list();
+			if(list == null)
+				throw new IOException("Can't read " + dir.getPath());
+			
+			for(int i = 0; i < list.length; i++)
+				walk(new File(dir, list[i]), list[i], zip.getAbsoluteFile(), files, names);
+			
+			/* what is left in old after this was removed from the folder */
+			ArrayList<CentralDirectory.Entry> kept = new ArrayList<CentralDirectory.Entry>();
+			ArrayList<Integer> times = new ArrayList<Integer>();
+			ArrayList<File> changed = new ArrayList<File>();
+			ArrayList<String> changed_names = new ArrayList<String>();
+			boolean touched = false;
+			long live = 0;
+			
+			for(int i = 0; i < files.size(); i++) {
+				File file = files.get(i);
+				CentralDirectory.Entry entry = old.remove(names.get(i));
+				int time = ZipWriter.dos_time(file.lastModified());
+				
+				if(entry != null && is_same(file, entry, time)) {
+					touched |= entry.time != time;
+					kept.add(entry);
+					times.add(time);
+					live += CentralDirectory.LOCAL_SIZE + entry.getName().length() + 
+							entry.compressed;
+					result.addSkipped();
+				} else {
+					changed.add(file);
+					changed_names.add(names.get(i));
+				}
+			}
+			
+			/* folder entries, made by other zip programs, have no data
+			 * and stay for as long as the folder does */
+			for(int i = 0; i < directory.size(); i++) {
+				CentralDirectory.Entry entry = old.remove(directory.getName(i));
+				
+				if(entry == null)
+					continue;
+				
+				if(entry.isDirectory() && new File(dir, entry.getName()).isDirectory()) {
+					kept.add(entry);
+					times.add(entry.time);
+				} else {
+					result.addDeleted();
+				}
+			}
+			
+			if(changed.isEmpty() && result.getDeletedCount() == 0 && !touched)
+				return result;
+			
+			/* the central directory about to be replaced is left out, so
+			 * an archive of many small files isn't rewritten every time */
+			long length = channel.size();
+			long start = directory.getStart();
+			boolean compact = (start - live) * 100 > start * MAX_WASTE;
+			
+			if(mProgress != null) {
+				for(File file : changed)
+					mProgress.addTotal(file.length(), 1);
+				if(compact)
+					for(CentralDirectory.Entry entry : kept)
+						mProgress.addTotal(entry.compressed, 1);
+			}
+			
+			if(compact)
+				rewrite(channel, zip, kept, times, changed, changed_names);
+			else
+				append(zip, length, kept, times, changed, changed_names);
+			
+			for(File file : changed)
+				result.addFile(file.length());
+			
+		} finally {
+			archive.close();
+		}
+		
+		return result;
+	}
+	
+	/*
+	 * Writes the changed files and a new central directory after the end 
+	 * of the archive
+	 */
+	private void append(File zip, long length, ArrayList<CentralDirectory.Entry> kept, 
+						ArrayList<Integer> times, ArrayList<File> changed, 
+						ArrayList<String> names) throws IOException {
+		ZipWriter writer = new ZipWriter(mPolicy.openAppend(zip), length, mTempDir, 
+										 mThreads, mCompression, mProgress);
+		
+		try {
+			for(int i = 0; i < kept.size(); i++)
+				writer.keep(kept.get(i), times.get(i));
+			
+			for(int i = 0; i < changed.size(); i++)
+				writer.add(changed.get(i), names.get(i));
+			
+			writer.close();
+			writer = null;
+			mPolicy.finishBatch();
+			
+		} finally {
+			if(writer != null) {
+				writer.abort();
+				truncate(zip, length);
+			}
+		}
+	}
+	
+	/*
+	 * Writes a new archive next to zip, copying the kept entries out of 
+	 * the old one, and puts it in zip's place
+	 */
+	private void rewrite(FileChannel channel, File zip, ArrayList<CentralDirectory.Entry> kept, 
+						 ArrayList<Integer> times, ArrayList<File> changed, 
+						 ArrayList<String> names) throws IOException {
+		File temp = File.createTempFile("zip", ".tmp", zip.getParentFile());
+		ZipWriter writer = null;
+		
+		try {
+			writer = new ZipWriter(mPolicy.openStream(temp, -1), mTempDir, 
+								   mThreads, mCompression, mProgress);
+			
+			for(int i = 0; i < kept.size(); i++)
+				writer.copy(channel, kept.get(i), times.get(i));
+			
+			for(int i = 0; i < changed.size(); i++)
+				writer.add(changed.get(i), names.get(i));
+			
+			writer.close();
+			writer = null;
+			mPolicy.finishBatch();
+			
+			if(!temp.renameTo(zip))
+				throw new IOException("Can't replace " + zip.getPath());
+			temp = null;
+			
+		} finally {
+			if(writer != null)
+				writer.abort();
+			if(temp != null)
+				temp.delete();
+		}
+	}
+	
+	/*
+	 * Lists every file under file, with the name its entry has, the same
+	 * way FileManager.createZipFile does
+	 */
+	private static void walk(File file, String name, File skip, ArrayList<File> files, 
+							 ArrayList<String> names) {
+		if(file.isFile()) {
+			if(!file.getAbsoluteFile().equals(skip)) {
+				files.add(file);
+				names.add(name);
+			}
+			
+		} else if(file.isDirectory()) {
+			String[] list = file.list();
+			
+			if(list != null)
+				for(int i = 0; i < list.length; i++)
+					walk(new File(file, list[i]), name + "/" + list[i], skip, files, names);
+		}
+	}
+	
+	/*
+	 * True if entry still holds the contents of file. Entries that are 
+	 * encrypted are always written again, they can't be copied without
+	 * their data descriptor.
+	 */
+	private boolean is_same(File file, CentralDirectory.Entry entry, int time) throws IOException {
+		if((entry.flags & CentralDirectory.FLAG_ENCRYPTED) != 0 || entry.isDirectory())
+			return false;
+		
+		if(entry.size != file.length())
+			return false;
+		
+		if(entry.time == time)
+			return true;
+		
+		if(mData == null)
+			mData = new byte[BUFFER_SIZE];
+		
+		FileInputStream in = new FileInputStream(file);
+		CRC32 crc = new CRC32();
+		int read;
+		
+		try {
+			while((read = in.read(mData)) != -1) {
+				crc.update(mData, 0, read);
+				
+				if(mProgress != null)
+					mProgress.checkCanceled();
+			}
+		} finally {
+			in.close();
+		}
+		
+		return crc.getValue() == entry.crc;
+	}
+	
+	private static void truncate(File zip, long length) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(zip, "rw");
+			
+			try {
+				file.setLength(length);
+			} finally {
+				file.close();
+			}
+			
+		} catch (IOException e) {
+			Log.e("IOException", e.getMessage());
+		}
+	}
+}
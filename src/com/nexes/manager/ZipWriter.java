@@ -0,0 +1,745 @@
+/*
+    Open Manager, an open source file manager for the Android system
+    Copyright (C) 2009, 2010, 2011  Joe Berria <nexesdevelopment@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.nexes.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive, deflating its entries on a pool of threads.
+ * <br>
+ * <br>
+ * Each file handed to add is compressed by a worker while the calling
+ * thread writes out the entries before it, so the archive still comes out
+ * in the order the files were added. Small entries are compressed into
+ * memory, larger ones into a temporary file that is copied into the
+ * archive and deleted. Only a few entries are in flight at any time, so
+ * memory use does not grow with the size of the folder being zipped.
+ * <br>
+ * <br>
+ * Without a temporary folder nothing but the archive is ever written. 
+ * Large entries are then deflated by the calling thread straight into the
+ * archive, with their checksum and sizes in a data descriptor after the
+ * data, which lets an archive be written to a socket or another app as 
+ * the folder is read.
+ * <br>
+ * <br>
+ * A CompressionPolicy picks the files that are only stored. A large 
+ * stored file is not copied to a temporary file, its checksum is worked 
+ * out by the worker and the file itself is copied into the archive, and 
+ * checked against that checksum on the way.
+ * <br>
+ * <br>
+ * Otherwise sizes and checksums are known before an entry is written, so 
+ * every local header is complete and needs no data descriptor. Entries 
+ * and archives over 4 Gb, and archives of more than 65535 entries, are
+ * written as Zip64, only where the plain fields are too small.
+ * <br>
+ * <br>
+ * Entries of an older archive can be carried over without inflating them
+ * again, either copied as they are or, when the writer appends to that 
+ * archive, left where they are and only listed again, see ZipUpdater.
+ *
+ * @author Joe Berria
+ */
+public class ZipWriter {
+	private static final int BUFFER_SIZE = 		64 * 1024;
+	/* entries up to this size are compressed into memory */
+	private static final int MEMORY_ENTRY = 	256 * 1024;
+	private static final int WINDOW_PER_THREAD = 2;
+	private static final long MAX_SIZE = 		0xffffffffL;
+	/* deflate can grow a file that doesn't compress by a little, so a
+	 * streamed entry this big is given Zip64 sizes just in case */
+	private static final long STREAM_ZIP64 = 	MAX_SIZE - (MAX_SIZE >> 8);
+	private static final int MAX_ENTRIES = 		0xffff;
+
+	private static final int LOCAL_HEADER = 	0x04034b50;
+	private static final int CENTRAL_HEADER = 	0x02014b50;
+	private static final int END_HEADER = 		0x06054b50;
+	private static final int END64_HEADER = 	0x06064b50;
+	private static final int END64_LOCATOR = 	0x07064b50;
+	private static final int VERSION = 			20;
+	private static final int VERSION_ZIP64 = 	45;
+	private static final int ZIP64_EXTRA = 		0x0001;
+	/* names are written as UTF-8 */
+	private static final int FLAG_UTF8 = 		0x0800;
+	/* sizes and checksum follow the data */
+	private static final int FLAG_DESCRIPTOR = 	0x0008;
+	private static final int DESCRIPTOR = 		0x08074b50;
+	private static final int METHOD_STORED = 	0;
+	private static final int METHOD_DEFLATED = 	8;
+
+	private final OutputStream mOut;
+	private final File mTempDir;
+	private final ProgressTracker mProgress;
+	private final CompressionPolicy mPolicy;
+	private final ThreadPoolExecutor mPool;
+	private final int mWindow;
+	private final LinkedList<Future<Entry>> mPending = new LinkedList<Future<Entry>>();
+	private final ArrayList<Entry> mWritten = new ArrayList<Entry>();
+	private final byte[] mHeader = new byte[56];
+	/* a read buffer and a deflate buffer for each worker */
+	private final ThreadLocal<byte[]> mBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE * 2];
+		}
+	};
+	private byte[] mData;
+	private long mOffset = 0;
+
+	/*
+	 * One entry of the archive. Its data is either in data, in the 
+	 * temporary file spill, or for a large stored entry in source. A
+	 * streamed entry is deflated from source as it is written.
+	 */
+	private static class Entry {
+		File source;
+		byte[] name;
+		int flags;
+		int method;
+		int time;
+		long crc;
+		long size;
+		long compressed;
+		long offset;
+		byte[] data;
+		File spill;
+		boolean streamed;
+	}
+
+	/**
+	 * @param out		where the archive is written, closed by close
+	 * @param tempDir	where large entries are compressed to while they wait,
+	 * 					or null to deflate them straight into out
+	 * @param threads	the number of threads that compress at the same time
+	 * @param progress	counts the bytes and files compressed, may be null
+	 */
+	public ZipWriter(OutputStream out, File tempDir, int threads, ProgressTracker progress) {
+		this(out, tempDir, threads, new CompressionPolicy(), progress);
+	}
+
+	/**
+	 * @param out		where the archive is written, closed by close
+	 * @param tempDir	where large entries are compressed to while they wait,
+	 * 					or null to deflate them straight into out
+	 * @param threads	the number of threads that compress at the same time
+	 * @param policy	which files are deflated and how hard
+	 * @param progress	counts the bytes and files compressed, may be null
+	 */
+	public ZipWriter(OutputStream out, File tempDir, int threads, CompressionPolicy policy,
+					 ProgressTracker progress) {
+		this(out, 0, tempDir, threads, policy, progress);
+	}
+
+	/**
+	 * @param out		where the archive is written, closed by close
+	 * @param offset	the number of bytes of the file already in front of out
+	 * @param tempDir	where large entries are compressed to while they wait,
+	 * 					or null to deflate them straight into out
+	 * @param threads	the number of threads that compress at the same time
+	 * @param policy	which files are deflated and how hard
+	 * @param progress	counts the bytes and files compressed, may be null
+	 */
+	ZipWriter(OutputStream out, long offset, File tempDir, int threads, 
+			  CompressionPolicy policy, ProgressTracker progress) {
+		threads = Math.max(1, threads);
+
+		mOut = out;
+		mOffset = offset;
+		mPolicy = policy;
+		mTempDir = tempDir;
+		mProgress = progress;
+		mWindow = threads * WINDOW_PER_THREAD;
+		mPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+									   new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Queues file to be compressed and added to the archive. This writes
+	 * out earlier entries as needed, so errors from those show up here.
+	 *
+	 * @param file	the file to add
+	 * @param name	the path of the entry in the archive, with / between folders
+	 * @throws IOException
+	 */
+	public void add(final File file, String name) throws IOException {
+		final Entry entry = new Entry();
+
+		entry.source = file;
+		entry.name = utf8(name);
+		entry.flags = FLAG_UTF8;
+		entry.time = dos_time(file.lastModified());
+
+		while(mPending.size() >= mWindow)
+			write_entry(take(mPending.removeFirst()));
+
+		mPending.add(mPool.submit(new Callable<Entry>() {
+			public Entry call() throws IOException {
+				compress(entry);
+				return entry;
+			}
+		}));
+	}
+
+	/**
+	 * Lists an entry that is already in the file this writer appends to
+	 * in the new central directory. Nothing is written until close.
+	 *
+	 * @param old	an entry of the archive in front of this writer's offset
+	 * @param time	the DOS time to give the entry, see dos_time
+	 */
+	void keep(CentralDirectory.Entry old, int time) {
+		mWritten.add(existing(old, time));
+	}
+
+	/**
+	 * Copies an entry of another archive into this one as it is, without
+	 * inflating and deflating it again. The data descriptor, if the entry
+	 * had one, is left behind as the new local header holds the sizes.
+	 *
+	 * @param archive	the other archive
+	 * @param old		the entry to copy, which must not be encrypted
+	 * @param time		the DOS time to give the entry, see dos_time
+	 * @throws IOException
+	 */
+	void copy(FileChannel archive, CentralDirectory.Entry old, int time) throws IOException {
+		Entry entry = existing(old, time);
+		long pos = CentralDirectory.dataStart(archive, old);
+		long left = old.compressed;
+
+		if(mData == null)
+			mData = new byte[BUFFER_SIZE];
+
+		ByteBuffer buffer = ByteBuffer.wrap(mData);
+
+		entry.flags &= ~FLAG_DESCRIPTOR;
+		entry.offset = mOffset;
+		write_header(entry, false);
+
+		while(left > 0) {
+			buffer.clear();
+			buffer.limit((int)Math.min(left, mData.length));
+
+			int read = archive.read(buffer, pos);
+			if(read == -1)
+				throw new ZipException("Unexpected end of zip file");
+
+			write(mData, 0, read);
+			pos += read;
+			left -= read;
+
+			if(mProgress != null) {
+				mProgress.addBytes(read);
+				mProgress.checkCanceled();
+			}
+		}
+
+		mWritten.add(entry);
+		if(mProgress != null)
+			mProgress.addFile();
+	}
+
+	/**
+	 * Writes out every entry still queued, then the central directory,
+	 * and closes the stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		while(!mPending.isEmpty())
+			write_entry(take(mPending.removeFirst()));
+
+		mPool.shutdown();
+
+		long start = mOffset;
+		for(Entry entry : mWritten)
+			write_header(entry, true);
+
+		long count = mWritten.size();
+		long size = mOffset - start;
+
+		if(count >= MAX_ENTRIES || size >= MAX_SIZE || start >= MAX_SIZE) {
+			long end = mOffset;
+
+			put_int(0, END64_HEADER);
+			put_long(4, 44);		/* size of the rest of the record */
+			put_short(12, VERSION_ZIP64);
+			put_short(14, VERSION_ZIP64);
+			put_int(16, 0);
+			put_int(20, 0);
+			put_long(24, count);
+			put_long(32, count);
+			put_long(40, size);
+			put_long(48, start);
+			write(mHeader, 0, 56);
+
+			put_int(0, END64_LOCATOR);
+			put_int(4, 0);
+			put_long(8, end);
+			put_int(16, 1);			/* number of disks */
+			write(mHeader, 0, 20);
+		}
+
+		/* whatever doesn't fit is marked and read from the Zip64 record */
+		put_int(0, END_HEADER);
+		put_short(4, 0);
+		put_short(6, 0);
+		put_short(8, (int)Math.min(count, MAX_ENTRIES));
+		put_short(10, (int)Math.min(count, MAX_ENTRIES));
+		put_int(12, Math.min(size, MAX_SIZE));
+		put_int(16, Math.min(start, MAX_SIZE));
+		put_short(20, 0);
+		write(mHeader, 0, 22);
+
+		mOut.close();
+	}
+
+	/**
+	 * Throws away whatever is still queued and closes the stream. Call
+	 * this instead of close when something went wrong or the operation
+	 * was canceled, the archive written so far is not valid.
+	 */
+	public void abort() {
+		/* entries that never started are dropped, the ones running are
+		 * left to finish so their temporary files can be removed */
+		mPool.shutdownNow();
+
+		try {
+			while(!mPool.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for(Future<Entry> future : mPending) {
+			if(!future.isDone())
+				continue;
+
+			try {
+				Entry entry = future.get();
+
+				if(entry.spill != null)
+					entry.spill.delete();
+
+			} catch (Exception e) { }
+		}
+		mPending.clear();
+
+		try {
+			mOut.close();
+		} catch (IOException e) { }
+	}
+
+	/*
+	 * Done on a worker thread
+	 */
+	private void compress(Entry entry) throws IOException {
+		byte[] data = mBuffers.get();
+		Deflater deflater = null;
+		CRC32 crc = new CRC32();
+		FileInputStream in = null;
+		OutputStream dest = null;
+		ByteArrayOutputStream memory = null;
+		int read, count;
+
+		try {
+			in = new FileInputStream(entry.source);
+			read = fill(in, data, CompressionPolicy.SAMPLE_SIZE);
+			boolean small = entry.source.length() <= MEMORY_ENTRY;
+
+			if(mPolicy.isStored(entry.source.getName(), data, read)) {
+				entry.method = METHOD_STORED;
+			} else {
+				entry.method = METHOD_DEFLATED;
+				deflater = new Deflater(mPolicy.getLevel(), true);
+			}
+
+			/* a large stored file is copied from the source later, and
+			 * with no temporary folder a large deflated one is as well */
+			if(small) {
+				memory = new ByteArrayOutputStream();
+				dest = memory;
+			} else if(deflater != null && mTempDir == null) {
+				entry.streamed = true;
+				entry.flags |= FLAG_DESCRIPTOR;
+				entry.size = entry.source.length();
+				return;
+			} else if(deflater != null) {
+				entry.spill = File.createTempFile("zip", ".tmp", mTempDir);
+				dest = new BufferedOutputStream(new FileOutputStream(entry.spill), BUFFER_SIZE);
+			}
+
+			while(read != -1) {
+				crc.update(data, 0, read);
+				entry.size += read;
+
+				if(deflater == null) {
+					if(dest != null)
+						dest.write(data, 0, read);
+					entry.compressed += read;
+
+				} else {
+					deflater.setInput(data, 0, read);
+
+					while(!deflater.needsInput()) {
+						count = deflater.deflate(data, BUFFER_SIZE, BUFFER_SIZE);
+						dest.write(data, BUFFER_SIZE, count);
+						entry.compressed += count;
+					}
+				}
+
+				if(mProgress != null) {
+					mProgress.addBytes(read);
+					mProgress.checkCanceled();
+				}
+
+				read = in.read(data, 0, BUFFER_SIZE);
+			}
+
+			if(deflater != null) {
+				deflater.finish();
+				while(!deflater.finished()) {
+					count = deflater.deflate(data, BUFFER_SIZE, BUFFER_SIZE);
+					dest.write(data, BUFFER_SIZE, count);
+					entry.compressed += count;
+				}
+			}
+
+			if(dest != null)
+				dest.close();
+			dest = null;
+			entry.crc = crc.getValue();
+			if(memory != null)
+				entry.data = memory.toByteArray();
+
+		} catch (IOException e) {
+			if(dest != null)
+				dest.close();
+			if(entry.spill != null)
+				entry.spill.delete();
+			throw e;
+
+		} finally {
+			if(in != null)
+				in.close();
+			if(deflater != null)
+				deflater.end();
+		}
+	}
+
+	/*
+	 * Reads until data holds length bytes or the stream ends. Returns the 
+	 * number read, or -1 if the stream was already at its end.
+	 */
+	private static int fill(FileInputStream in, byte[] data, int length) throws IOException {
+		int total = 0;
+		int read;
+
+		while(total < length && (read = in.read(data, total, length - total)) != -1)
+			total += read;
+
+		return total == 0 && length > 0 ? -1 : total;
+	}
+
+	private Entry take(Future<Entry> future) throws IOException {
+		try {
+			return future.get();
+
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+
+			throw new RuntimeException(e.getCause());
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+	}
+
+	private void write_entry(Entry entry) throws IOException {
+		entry.offset = mOffset;
+		write_header(entry, false);
+
+		if(entry.data != null) {
+			write(entry.data, 0, entry.data.length);
+			entry.data = null;
+
+		} else if(entry.streamed) {
+			stream_entry(entry);
+
+		} else if(entry.spill != null) {
+			try {
+				copy(entry.spill, null);
+			} finally {
+				entry.spill.delete();
+			}
+
+		} else {
+			/* a large stored file must not have changed since its
+			 * checksum was taken */
+			CRC32 crc = new CRC32();
+
+			if(copy(entry.source, crc) != entry.size || crc.getValue() != entry.crc)
+				throw new IOException(entry.source.getPath() + " changed while it was zipped");
+		}
+
+		mWritten.add(entry);
+		if(mProgress != null)
+			mProgress.addFile();
+	}
+
+	/*
+	 * Deflates a large entry straight into the archive, after its local
+	 * header, and writes its checksum and sizes in a data descriptor
+	 */
+	private void stream_entry(Entry entry) throws IOException {
+		boolean zip64 = entry.size >= STREAM_ZIP64;
+		Deflater deflater = new Deflater(mPolicy.getLevel(), true);
+		FileInputStream in = new FileInputStream(entry.source);
+		byte[] data = mBuffers.get();
+		CRC32 crc = new CRC32();
+		int read, count;
+
+		entry.size = 0;
+		try {
+			while((read = in.read(data, 0, BUFFER_SIZE)) != -1) {
+				crc.update(data, 0, read);
+				entry.size += read;
+				deflater.setInput(data, 0, read);
+
+				while(!deflater.needsInput()) {
+					count = deflater.deflate(data, BUFFER_SIZE, BUFFER_SIZE);
+					write(data, BUFFER_SIZE, count);
+					entry.compressed += count;
+				}
+
+				if(mProgress != null) {
+					mProgress.addBytes(read);
+					mProgress.checkCanceled();
+				}
+			}
+
+			deflater.finish();
+			while(!deflater.finished()) {
+				count = deflater.deflate(data, BUFFER_SIZE, BUFFER_SIZE);
+				write(data, BUFFER_SIZE, count);
+				entry.compressed += count;
+			}
+
+		} finally {
+			in.close();
+			deflater.end();
+		}
+
+		if(!zip64 && (entry.size >= MAX_SIZE || entry.compressed >= MAX_SIZE))
+			throw new IOException(entry.source.getPath() + " grew while it was zipped");
+
+		entry.crc = crc.getValue();
+		put_int(0, DESCRIPTOR);
+		put_int(4, entry.crc);
+		if(zip64) {
+			put_long(8, entry.compressed);
+			put_long(16, entry.size);
+			write(mHeader, 0, 24);
+		} else {
+			put_int(8, entry.compressed);
+			put_int(12, entry.size);
+			write(mHeader, 0, 16);
+		}
+	}
+
+	/*
+	 * Writes all of file into the archive, returns the number of bytes
+	 */
+	private long copy(File file, CRC32 crc) throws IOException {
+		if(mData == null)
+			mData = new byte[BUFFER_SIZE];
+
+		FileInputStream in = new FileInputStream(file);
+		long total = 0;
+		int read;
+
+		try {
+			while((read = in.read(mData)) != -1) {
+				if(crc != null)
+					crc.update(mData, 0, read);
+				write(mData, 0, read);
+				total += read;
+			}
+		} finally {
+			in.close();
+		}
+
+		return total;
+	}
+
+	/*
+	 * The local header of an entry, or its record in the central directory.
+	 * A size or offset that doesn't fit is marked and written to a Zip64
+	 * extra field instead, a local header then has both sizes there. The
+	 * local header of a streamed entry has its sizes left as zero, as
+	 * its size is still the size its file had.
+	 */
+	private void write_header(Entry entry, boolean central) throws IOException {
+		boolean streamed = !central && entry.streamed;
+		long size = streamed ? 0 : entry.size;
+		long compressed = streamed ? 0 : entry.compressed;
+		boolean big_size = (streamed ? entry.size >= STREAM_ZIP64 : size >= MAX_SIZE) || 
+						   (!central && compressed >= MAX_SIZE);
+		boolean big_compressed = compressed >= MAX_SIZE || (!central && big_size);
+		boolean big_offset = central && entry.offset >= MAX_SIZE;
+		int extra = (big_size ? 8 : 0) + (big_compressed ? 8 : 0) + (big_offset ? 8 : 0);
+		int version = extra > 0 ? VERSION_ZIP64 : VERSION;
+		int pos = 0;
+
+		if(central) {
+			put_int(0, CENTRAL_HEADER);
+			put_short(4, VERSION_ZIP64);
+			pos = 6;
+		} else {
+			put_int(0, LOCAL_HEADER);
+			pos = 4;
+		}
+
+		put_short(pos, version);
+		put_short(pos + 2, entry.flags);
+		put_short(pos + 4, entry.method);
+		put_int(pos + 6, entry.time);
+		put_int(pos + 10, entry.crc);
+		put_int(pos + 14, big_compressed ? MAX_SIZE : compressed);
+		put_int(pos + 18, big_size ? MAX_SIZE : size);
+		put_short(pos + 22, entry.name.length);
+		put_short(pos + 24, extra > 0 ? extra + 4 : 0);
+		pos += 26;
+
+		if(central) {
+			put_short(pos, 0);		/* comment */
+			put_short(pos + 2, 0);	/* disk */
+			put_short(pos + 4, 0);	/* internal attributes */
+			put_int(pos + 6, 0);	/* external attributes */
+			put_int(pos + 10, big_offset ? MAX_SIZE : entry.offset);
+			pos += 14;
+		}
+
+		write(mHeader, 0, pos);
+		write(entry.name, 0, entry.name.length);
+
+		if(extra == 0)
+			return;
+
+		put_short(0, ZIP64_EXTRA);
+		put_short(2, extra);
+		pos = 4;
+		if(big_size) {
+			put_long(pos, size);
+			pos += 8;
+		}
+		if(big_compressed) {
+			put_long(pos, compressed);
+			pos += 8;
+		}
+		if(big_offset) {
+			put_long(pos, entry.offset);
+			pos += 8;
+		}
+		write(mHeader, 0, pos);
+	}
+
+	private static Entry existing(CentralDirectory.Entry old, int time) {
+		Entry entry = new Entry();
+
+		/* the name and flags are written back exactly as they were, a
+		 * name in a legacy encoding would not survive being decoded */
+		entry.name = old.rawName;
+		entry.flags = old.flags;
+		entry.method = old.method;
+		entry.time = time;
+		entry.crc = old.crc;
+		entry.size = old.size;
+		entry.compressed = old.compressed;
+		entry.offset = old.offset;
+		return entry;
+	}
+
+	private void write(byte[] data, int off, int len) throws IOException {
+		mOut.write(data, off, len);
+		mOffset += len;
+	}
+
+	private void put_short(int pos, int value) {
+		mHeader[pos] = (byte)value;
+		mHeader[pos + 1] = (byte)(value >> 8);
+	}
+
+	private void put_int(int pos, long value) {
+		put_short(pos, (int)value);
+		put_short(pos + 2, (int)(value >> 16));
+	}
+
+	private void put_long(int pos, long value) {
+		put_int(pos, value);
+		put_int(pos + 4, value >> 32);
+	}
+
+	private static byte[] utf8(String name) {
+		try {
+			return name.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return name.getBytes();
+		}
+	}
+
+	/*
+	 * DOS date in the high 16 bits, time in the low 16
+	 */
+	static int dos_time(long time) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+
+		int year = cal.get(Calendar.YEAR);
+		if(year < 1980)
+			return (1 << 21) | (1 << 16);
+
+		return (year - 1980) << 25 | (cal.get(Calendar.MONTH) + 1) << 21 |
+			   cal.get(Calendar.DAY_OF_MONTH) << 16 | cal.get(Calendar.HOUR_OF_DAY) << 11 |
+			   cal.get(Calendar.MINUTE) << 5 | cal.get(Calendar.SECOND) >> 1;
+	}
+}